@@ -0,0 +1,226 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.util.Log;
+import android.util.Patterns;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
+
+/**
+ * Process-wide summary of the email accounts. The accounts are scanned
+ * once and the summary is kept up to date by the account manager. If the
+ * listener can not be registered, every lookup scans the accounts.
+ */
+final class AccountIndex implements OnAccountsUpdateListener {
+
+    // The shared instance.
+    private static AccountIndex instance;
+
+    // The application context.
+    private final Context ctx;
+
+    // If the account manager reports updates to the index.
+    private final boolean listening;
+
+    // The summary of the email accounts or null if stale.
+    private volatile Summary summary;
+
+    // Bumped with every update, so that scans which started before do not
+    // publish their outdated summary.
+    private volatile int generation;
+
+    /**
+     * Initializes the index.
+     *
+     * @param ctx       The application context.
+     * @param listening If the index gets account updates.
+     */
+    private AccountIndex (Context ctx, boolean listening) {
+        this.ctx       = ctx;
+        this.listening = listening;
+    }
+
+    /**
+     * The shared index. Registers for account updates on first use.
+     *
+     * @param ctx Any context of the app.
+     * @return    The process-wide index.
+     */
+    static synchronized AccountIndex get (Context ctx) {
+        if (instance != null)
+            return instance;
+
+        Context app = ctx.getApplicationContext();
+
+        instance = new AccountIndex(app, true);
+
+        try {
+            AccountManager.get(app).addOnAccountsUpdatedListener(instance, null, false);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "Failed to listen for account updates");
+            instance = new AccountIndex(app, false);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Called when the accounts have changed.
+     *
+     * @param accounts The current accounts.
+     */
+    @Override
+    public void onAccountsUpdated (Account[] accounts) {
+        Summary res = summarize(accounts);
+
+        synchronized (this) {
+            generation++;
+            summary = res;
+        }
+    }
+
+    /**
+     * Forget the summary, like when the GET_ACCOUNTS permission has been
+     * granted.
+     */
+    synchronized void invalidate() {
+        generation++;
+        summary = null;
+    }
+
+    /**
+     * If an email account is setup.
+     */
+    boolean isConfigured() {
+        return getSummary().count > 0;
+    }
+
+    /**
+     * The summary of the email accounts. A scan is only kept if the
+     * accounts have not been updated meanwhile.
+     */
+    Summary getSummary() {
+        Summary res = summary;
+
+        if (res != null)
+            return res;
+
+        int gen = generation;
+
+        res = scan();
+
+        synchronized (this) {
+            if (res != null && listening && gen == generation) {
+                summary = res;
+            }
+        }
+
+        return res != null ? res : new Summary(0, Collections.<String>emptySet());
+    }
+
+    /**
+     * Ask the account manager for all accounts.
+     *
+     * @return The summary or null if the accounts are not accessible.
+     */
+    @SuppressLint("MissingPermission")
+    private Summary scan() {
+        try {
+            return summarize(AccountManager.get(ctx).getAccounts());
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "Missing GET_ACCOUNTS permission.");
+            return null;
+        }
+    }
+
+    /**
+     * Counts the accounts named by an email address and collects their
+     * types.
+     *
+     * @param accounts The accounts to look at.
+     */
+    private static Summary summarize (Account[] accounts) {
+        Pattern emailPattern = Patterns.EMAIL_ADDRESS;
+        Set<String> types    = new TreeSet<>();
+        int count            = 0;
+
+        for (Account account : accounts) {
+            if (emailPattern.matcher(account.name).matches()) {
+                types.add(account.type);
+                count++;
+            }
+        }
+
+        return new Summary(count, Collections.unmodifiableSet(types));
+    }
+
+    /**
+     * The number and types of the email accounts.
+     */
+    static final class Summary {
+
+        // Number of accounts named by an email address.
+        private final int count;
+
+        // The types of these accounts like com.google.
+        private final Set<String> types;
+
+        /**
+         * Initializes the summary.
+         */
+        private Summary (int count, Set<String> types) {
+            this.count = count;
+            this.types = types;
+        }
+
+        /**
+         * The summary in its JSON form.
+         */
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+
+            try {
+                json.put("configured", count > 0);
+                json.put("count", count);
+                json.put("types", new JSONArray(types));
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Failed to write account summary");
+            }
+
+            return json;
+        }
+    }
+
+}
@@ -20,44 +20,82 @@
 package de.appplant.cordova.emailcomposer;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.net.Uri;
 import android.util.Base64;
+import android.util.Base64InputStream;
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
 
+@SuppressWarnings("Convert2Diamond")
 final class AssetUtil {
 
     // Path where to put tmp the attachments.
     private static final String ATTACHMENT_FOLDER = "/email_composer";
 
+    // Estimated heap used to hash and decode a base64 attachment.
+    private static final int BASE64_OVERHEAD = Streams.BUFFER_SIZE + 8 * 1024;
+
+    // Estimated heap used to hash and encode a text attachment.
+    private static final int TEXT_OVERHEAD = 16 * 1024;
+
+    // Resource ids by their resource path, 0 for a missing resource.
+    private static final Map<String, Integer> RES_IDS = new ConcurrentHashMap<String, Integer>();
+
     // Application context
     private final Context ctx;
 
+    // Content-addressed store of the attachment folder or null.
+    private final AttachmentCache cache;
+
+    // Keys of the cache entries referenced by this instance.
+    private final List<String> pins = new ArrayList<String>();
+
+    // Stops the copies once the request got cancelled or timed out.
+    private final Cancellation token;
+
+    // The memory budget of the request.
+    private final MemoryBudget budget;
+
     /**
      * Initializes the asset utils.
      *
-     * @param ctx The application context.
+     * @param ctx    The application context.
+     * @param token  The cancellation token of the request.
+     * @param budget The memory budget of the request.
      */
-    AssetUtil (Context ctx) {
-        this.ctx = ctx;
+    AssetUtil (Context ctx, Cancellation token, MemoryBudget budget) {
+        File dir = ctx.getExternalCacheDir();
+
+        this.ctx    = ctx;
+        this.token  = token;
+        this.budget = budget;
+        this.cache = dir != null
+                ? new AttachmentCache(new File(dir, ATTACHMENT_FOLDER)) : null;
     }
 
     /**
-     * Cleans the attachment folder.
+     * Evicts the least recently used attachments until the attachment
+     * folder fits into the byte budget. Attachments of drafts in flight
+     * are kept.
      *
-     * @param ctx The application context.
+     * @param ctx     The application context.
+     * @param maxSize The byte budget of the attachment folder.
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    static void cleanupAttachmentFolder(Context ctx) {
+    static void cleanupAttachmentFolder(Context ctx, long maxSize) {
         try {
             String path = ctx.getExternalCacheDir() + ATTACHMENT_FOLDER;
             File dir    = new File(path);
@@ -65,14 +103,32 @@ final class AssetUtil {
             if (!dir.isDirectory())
                 return;
 
-            File[] files = dir.listFiles();
+            long start = System.nanoTime();
+            long freed = new AttachmentCache(dir).trim(maxSize);
+            long ms    = (System.nanoTime() - start) / 1000000;
 
-            for (File file : files) { file.delete(); }
+            Log.d(LOG_TAG, "Cleaned up " + freed + " bytes in " + ms + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception npe){
             Log.w(LOG_TAG, "Missing external cache dir");
         }
     }
 
+    /**
+     * Releases the attachments materialized by this instance, so that
+     * they may be evicted from the attachment folder again.
+     */
+    void release() {
+        synchronized (pins) {
+            for (String key : pins) {
+                AttachmentCache.unpin(key);
+            }
+
+            pins.clear();
+        }
+    }
+
     /**
      * The URI for an attachment path.
      *
@@ -80,22 +136,54 @@ final class AssetUtil {
      * @return      The URI pointing to the given path.
      */
     Uri parse (String path) {
+        token.check();
+
+        boolean traced = Tracing.isEnabled()
+                && Tracing.begin("AssetUtil.parse " + AttachmentPath.getScheme(path));
+
+        try {
+            return resolve(path);
+        } finally {
+            Tracing.end(traced);
+        }
+    }
+
+    /**
+     * The URI for an attachment path by its scheme.
+     *
+     * @param path  The given path to the attachment.
+     * @return      The URI pointing to the given path.
+     */
+    private Uri resolve (String path) {
+        long start = Stats.start();
+        int kind   = AttachmentPath.getKind(path);
         Uri uri;
 
-        if (path.startsWith("res:")) {
-            uri = getUriForResourcePath(path);
-        } else if (path.startsWith("app://")) {
-            uri = getUriForAppInternalPath(path);
-        } else if (path.startsWith("file:///")) {
-            uri = getUriForAbsolutePath(path);
-        } else if (path.startsWith("file://")) {
-            uri = getUriForAssetPath(path);
-        } else if (path.startsWith("base64:")) {
-            uri = getUriForBase64Content(path);
-        } else {
-            uri = Uri.parse(path);
+        switch (kind) {
+            case AttachmentPath.RESOURCE:
+                uri = getUriForResourcePath(path);
+                break;
+            case AttachmentPath.APP:
+                uri = getUriForAppInternalPath(path);
+                break;
+            case AttachmentPath.ABSOLUTE:
+                uri = getUriForAbsolutePath(path);
+                break;
+            case AttachmentPath.ASSET:
+                uri = getUriForAssetPath(path);
+                break;
+            case AttachmentPath.BASE64:
+                uri = getUriForBase64Content(path);
+                break;
+            case AttachmentPath.UPLOAD:
+                uri = getUriForUpload(path);
+                break;
+            default:
+                uri = Uri.parse(path);
         }
 
+        Stats.stop(AttachmentPath.getStage(kind), start);
+
         return uri;
     }
 
@@ -117,150 +205,245 @@ final class AssetUtil {
     }
 
     /**
-     * The URI for an asset.
+     * The URI for an asset. The asset is served in place by the provider.
      *
      * @param path  The given asset path.
      * @return      The URI pointing to the given path.
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     private Uri getUriForAssetPath (String path) {
-        String resPath  = path.replaceFirst("file:/", "www");
-        String fileName = resPath.substring(resPath.lastIndexOf('/') + 1);
-        File dir        = ctx.getExternalCacheDir();
-
-        if (dir == null) {
-            Log.e(LOG_TAG, "Missing external cache dir");
-            return Uri.EMPTY;
-        }
-
-        String storage  = dir.toString() + ATTACHMENT_FOLDER;
-        File file       = new File(storage, fileName);
-        new File(storage).mkdir();
+        String resPath = path.replaceFirst("file:/", "www");
 
         try {
-            AssetManager assets  = ctx.getAssets();
-            InputStream in       = assets.open(resPath);
-            FileOutputStream out = new FileOutputStream(file);
-            copyStream(in, out);
+            ctx.getAssets().open(resPath).close();
         } catch (Exception e) {
             Log.e(LOG_TAG, "File not found: " + resPath);
-            e.printStackTrace();
+            return Uri.EMPTY;
         }
 
-        return getUriForFile(ctx, file);
+        return Provider.getUriForAsset(ctx, resPath);
     }
 
     /**
-     * The URI for an internal file.
+     * The URI for an internal file. The file is served in place by the
+     * provider.
      *
      * @param path The given asset path.
      * @return     The URI pointing to the given path.
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     private Uri getUriForAppInternalPath (String path) {
-        String resPath  = path.replaceFirst("app:/", "");
-        String fileName = resPath.substring(resPath.lastIndexOf('/') + 1);
-        File dir        = ctx.getExternalCacheDir();
-
-        if (dir == null) {
-            Log.e("EmailComposer", "Missing external cache dir");
-            return Uri.EMPTY;
-        }
-
-        String storage  = dir.toString() + ATTACHMENT_FOLDER;
-        File file       = new File(storage, fileName);
-        new File(storage).mkdir();
-
+        String resPath = path.replaceFirst("app:/", "");
         File filesDir  = ctx.getFilesDir();
         String absPath = filesDir.getAbsolutePath() + "/.." + resPath;
 
-        try {
-            InputStream in       = new FileInputStream(absPath);
-            FileOutputStream out = new FileOutputStream(file);
-            copyStream(in, out);
-        } catch (Exception e) {
+        if (!new File(absPath).isFile()) {
             Log.e(LOG_TAG, "File not found: " + absPath);
-            e.printStackTrace();
+            return Uri.EMPTY;
         }
 
-        return getUriForFile(ctx, file);
+        return Provider.getUriForAppFile(ctx, resPath);
     }
 
     /**
-     * The URI for a resource.
+     * The URI for a resource. The resource is served in place by the
+     * provider.
      *
      * @param path  The given relative path.
      * @return      The URI pointing to the given path
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     private Uri getUriForResourcePath (String path) {
-        String resPath   = path.replaceFirst("res://", "");
-        String fileName  = resPath.substring(resPath.lastIndexOf('/') + 1);
-        String resName   = fileName.substring(0, fileName.lastIndexOf('.'));
-        String extension = resPath.substring(resPath.lastIndexOf('.'));
-        File dir         = ctx.getExternalCacheDir();
-        int resId        = getResId(resPath);
-
-        if (dir == null) {
-            Log.e(LOG_TAG, "Missing external cache dir");
-            return Uri.EMPTY;
-        }
+        String resPath  = path.replaceFirst("res://", "");
+        String fileName = resPath.substring(resPath.lastIndexOf('/') + 1);
+        int resId       = getResId(resPath, fileName);
 
         if (resId == 0) {
             Log.e(LOG_TAG, "File not found: " + resPath);
+            return Uri.EMPTY;
+        }
+
+        return Provider.getUriForResource(ctx, resId, fileName);
+    }
+
+    /**
+     * The URI for a base64 encoded content. The content is hashed and
+     * decoded in chunks, so only the buffers count against the memory
+     * budget.
+     *
+     * @param str   The given base64 encoded content.
+     * @return      The URI including the given content.
+     */
+    private Uri getUriForBase64Content (String str) {
+        budget.reserve(BASE64_OVERHEAD, "base64 attachment");
+
+        try {
+            return decodeBase64Content(str);
+        } finally {
+            budget.release(BASE64_OVERHEAD);
         }
+    }
+
+    /**
+     * Writes the base64 encoded content into the attachment folder.
+     *
+     * @param str   The given base64 encoded content.
+     * @return      The URI including the given content.
+     */
+    private Uri decodeBase64Content (String str) {
+        int dataStart  = str.indexOf("//") + 2;
+        String resName = str.substring(str.indexOf(":") + 1, dataStart - 2);
+        String key     = AttachmentCache.key(str, dataStart);
+        File file      = getCacheFile(resName, "base64", key);
 
-        String storage   = dir.toString() + ATTACHMENT_FOLDER;
-        File file        = new File(storage, resName + extension);
-        new File(storage).mkdir();
+        if (file == null)
+            return Uri.EMPTY;
+
+        if (cache.contains(file))
+            return getUriForFile(ctx, file);
 
         try {
-            Resources res        = ctx.getResources();
-            InputStream in       = res.openRawResource(resId);
-            FileOutputStream out = new FileOutputStream(file);
-            copyStream(in, out);
+            InputStream data     = new Streams.CharSequenceInputStream(str, dataStart);
+            InputStream in       = new Base64InputStream(data, Base64.DEFAULT);
+            materialize(in, file);
+        } catch (ComposerException e) {
+            throw e;
         } catch (Exception e) {
-            Log.e(LOG_TAG, "File not found: " + resPath);
+            Log.e(LOG_TAG, "Invalid Base64 string");
             e.printStackTrace();
+            return Uri.EMPTY;
         }
 
         return getUriForFile(ctx, file);
     }
 
     /**
-     * The URI for a base64 encoded content.
+     * The URI for an attachment uploaded in chunks by the app.
      *
-     * @param str   The given base64 encoded content.
-     * @return      The URI including the given content.
+     * @param path  The upload://handle of the attachment.
+     * @return      The URI pointing to the uploaded file.
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    private Uri getUriForBase64Content (String str) {
-        String resName = str.substring(str.indexOf(":") + 1, str.indexOf("//"));
-        String resData = str.substring(str.indexOf("//") + 2);
-        File dir       = ctx.getExternalCacheDir();
+    private Uri getUriForUpload (String path) {
+        String handle = path.substring(AttachmentPath.UPLOAD_SCHEME.length());
+        File file     = new Uploads(ctx).getFile(handle);
 
-        if (dir == null) {
-            Log.e(LOG_TAG, "Missing external cache dir");
+        if (file == null) {
+            Log.e(LOG_TAG, "Upload not found: " + handle);
             return Uri.EMPTY;
         }
 
-        String storage = dir.toString() + ATTACHMENT_FOLDER;
-        File file      = new File(storage, resName);
-        new File(storage).mkdir();
+        return getUriForFile(ctx, file);
+    }
+
+    /**
+     * The URI for a text which gets written as UTF-8 into a file. The
+     * text is hashed and encoded in chunks, so only the buffers count
+     * against the memory budget.
+     *
+     * @param fileName The name of the attachment.
+     * @param text     The text to attach.
+     * @return         The URI including the given content.
+     */
+    Uri getUriForText (String fileName, String text) {
+        budget.reserve(TEXT_OVERHEAD, "text attachment");
 
         try {
-            byte[] bytes         = Base64.decode(resData, 0);
-            InputStream in       = new ByteArrayInputStream(bytes);
-            FileOutputStream out = new FileOutputStream(file);
-            copyStream(in, out);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Invalid Base64 string");
+            return writeText(fileName, text);
+        } finally {
+            budget.release(TEXT_OVERHEAD);
+        }
+    }
+
+    /**
+     * Writes the text into the attachment folder.
+     *
+     * @param fileName The name of the attachment.
+     * @param text     The text to attach.
+     * @return         The URI including the given content.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private Uri writeText (String fileName, String text) {
+        long start = Stats.start();
+        File file  = getCacheFile(fileName, "text", AttachmentCache.textKey(text));
+
+        if (file == null)
+            return Uri.EMPTY;
+
+        if (cache.contains(file))
+            return getUriForFile(ctx, file);
+
+        try {
+            File tmp   = cache.createTempFile();
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+            try {
+                out.write(text);
+                out.close();
+            } catch (IOException e) {
+                Streams.closeQuietly(out);
+                tmp.delete();
+                throw e;
+            }
+
+            if (!cache.commit(tmp, file))
+                throw new IOException("Failed to write " + file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + fileName);
             e.printStackTrace();
+            return Uri.EMPTY;
         }
 
+        Stats.bytes("text", file.length());
+        Stats.stop("getUriForText", start);
+
         return getUriForFile(ctx, file);
     }
 
+    /**
+     * The file within the attachment folder for the identified content.
+     *
+     * @param fileName The name of the attachment.
+     * @param identity Parts which identify the content like its path and
+     *                 modification time.
+     * @return         The file, which may not exist yet, or null if there
+     *                 is no external cache dir.
+     */
+    private File getCacheFile (String fileName, Object... identity) {
+        if (cache == null) {
+            Log.e(LOG_TAG, "Missing external cache dir");
+            return null;
+        }
+
+        String key = AttachmentCache.key(identity);
+
+        synchronized (pins) {
+            AttachmentCache.pin(key);
+            pins.add(key);
+        }
+
+        return cache.getFile(key, fileName);
+    }
+
+    /**
+     * Writes the content into the attachment folder. The file becomes
+     * visible under its final name only once it has been fully written,
+     * a partial file of a failed or cancelled copy gets deleted.
+     *
+     * @param in   The content.
+     * @param file The file of the cache entry.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void materialize (InputStream in, File file) throws IOException {
+        File tmp = cache.createTempFile();
+
+        try {
+            copyStream(in, new FileOutputStream(tmp), "base64", token);
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        if (!cache.commit(tmp, file))
+            throw new IOException("Failed to write " + file);
+    }
+
     /**
      * Get content URI for the specified file.
      *
@@ -270,10 +453,8 @@ final class AssetUtil {
      * @return content://...
      */
     private Uri getUriForFile(Context ctx, File file) {
-        String authority = ctx.getPackageName() + ".emailcomposer.provider";
-
         try {
-            return Provider.getUriForFile(ctx, authority, file);
+            return Provider.getUriForFile(ctx, Provider.getAuthority(ctx), file);
         } catch (Exception e) {
             Log.e(LOG_TAG, "Failed to get uri for file");
             e.printStackTrace();
@@ -282,42 +463,102 @@ final class AssetUtil {
     }
 
     /**
-     * Writes an InputStream to an OutputStream
+     * Writes an InputStream to an OutputStream and closes both streams.
+     *
+     * @param in     The input stream.
+     * @param out    The output stream.
+     * @param scheme The scheme of the source to account the bytes to.
+     *
+     * @return The number of copied bytes.
+     */
+    static long copyStream (InputStream in, OutputStream out, String scheme)
+            throws IOException {
+        return copyStream(in, out, scheme, null);
+    }
+
+    /**
+     * Writes an InputStream to an OutputStream and closes both streams.
+     * The bytes pass through a pooled buffer. The copy stops between two
+     * chunks once the request got cancelled or timed out.
+     *
+     * @param in     The input stream.
+     * @param out    The output stream.
+     * @param scheme The scheme of the source to account the bytes to.
+     * @param token  The cancellation token or null.
      *
-     * @param in    The input stream.
-     * @param out   The output stream.
+     * @return The number of copied bytes.
      */
-    private void copyStream (InputStream in, FileOutputStream out) {
-        byte[] buffer = new byte[1024];
-        int read;
+    static long copyStream (InputStream in, OutputStream out, String scheme,
+                            Cancellation token) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+
+        boolean traced = Tracing.isEnabled()
+                && Tracing.begin("AssetUtil.copyStream " + scheme);
 
         try {
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
+            bytes = Streams.pump(in, out, token);
             out.flush();
             out.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            Streams.closeQuietly(in);
+            Streams.closeQuietly(out);
+
+            if (traced) {
+                Tracing.mark(bytes + " bytes");
+                Tracing.end(true);
+            }
         }
+
+        Stats.stop("copyStream", start);
+        Stats.bytes(scheme, bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Forgets the resolved resource ids, as a configuration change may
+     * point a resource path to another resource.
+     */
+    static void invalidateResIds() {
+        RES_IDS.clear();
     }
 
     /**
-     * Returns the resource ID for the given resource path.
+     * Returns the resource ID for the given resource path. Both found and
+     * missing resources are remembered, so that the lookup by name runs
+     * once per path.
+     *
+     * @param resPath  The path of the resource like drawable/icon.png.
+     * @param fileName The file name part of the path.
      *
      * @return The resource ID for the given resource.
      */
-    private int getResId (String resPath) {
-        Resources res   = ctx.getResources();
-        String pkgName  = ctx.getPackageName();
-        String dirName  = "drawable";
-        String fileName = resPath;
-
-        if (resPath.contains("/")) {
-            dirName  = resPath.substring(0, resPath.lastIndexOf('/'));
-            fileName = resPath.substring(resPath.lastIndexOf('/') + 1);
+    private int getResId (String resPath, String fileName) {
+        Integer resId = RES_IDS.get(resPath);
+
+        if (resId == null) {
+            resId = findResId(resPath, fileName);
+            RES_IDS.put(resPath, resId);
         }
 
+        return resId;
+    }
+
+    /**
+     * Looks up the resource ID by name, first within the folder of the
+     * path, then within mipmap and drawable.
+     *
+     * @param resPath  The path of the resource like drawable/icon.png.
+     * @param fileName The file name part of the path.
+     *
+     * @return The resource ID for the given resource.
+     */
+    private int findResId (String resPath, String fileName) {
+        Resources res  = ctx.getResources();
+        String pkgName = ctx.getPackageName();
+        int slash      = resPath.lastIndexOf('/');
+        String dirName = slash != -1 ? resPath.substring(0, slash) : "drawable";
         String resName = fileName.substring(0, fileName.lastIndexOf('.'));
         int resId      = res.getIdentifier(resName, dirName, pkgName);
 
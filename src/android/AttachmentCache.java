@@ -0,0 +1,399 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed store for materialized attachments. Each entry is a
+ * folder named by its key which holds the file under its original name.
+ * Entries survive app restarts and are evicted least recently used first
+ * once the folder grows beyond its byte budget.
+ */
+@SuppressWarnings({"Convert2Diamond", "Convert2Lambda"})
+final class AttachmentCache {
+
+    // Default byte budget of the attachment folder.
+    static final long DEFAULT_MAX_SIZE = 50 * 1024 * 1024;
+
+    // Suffix of files which are still being written.
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Age after which a temporary file is considered abandoned.
+    private static final long TMP_MAX_AGE = 60 * 60 * 1000;
+
+    // Number of files to delete before pausing.
+    private static final int CHUNK_SIZE = 32;
+
+    // Pause in ms between two chunks of deletions.
+    private static final long CHUNK_PAUSE = 5;
+
+    // Keys of the entries referenced by drafts in flight.
+    private static final Map<String, Integer> PINS = new HashMap<String, Integer>();
+
+    // Estimated size of the folder as of the last trim plus the entries
+    // committed since then.
+    private static final AtomicLong SIZE = new AtomicLong();
+
+    // The attachment folder.
+    private final File dir;
+
+    /**
+     * Initializes the cache.
+     *
+     * @param dir The attachment folder.
+     */
+    AttachmentCache (File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * The file where to find the entry for the given key.
+     *
+     * @param key      The key of the entry.
+     * @param fileName The name of the attachment.
+     * @return         The file, which may not exist yet.
+     */
+    File getFile (String key, String fileName) {
+        return new File(new File(dir, key), fileName);
+    }
+
+    /**
+     * If the entry has been materialized already. Marks the entry as
+     * recently used if so.
+     *
+     * @param file The file of the entry.
+     * @return     true if the file can be reused.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    boolean contains (File file) {
+        if (!file.isFile())
+            return false;
+
+        file.getParentFile().setLastModified(System.currentTimeMillis());
+
+        return true;
+    }
+
+    /**
+     * Creates an unique file to write a new entry into.
+     *
+     * @return The temporary file.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    File createTempFile() throws IOException {
+        dir.mkdirs();
+        return File.createTempFile("entry", TMP_SUFFIX, dir);
+    }
+
+    /**
+     * Moves the written temporary file to its entry.
+     *
+     * @param tmp  The temporary file.
+     * @param file The file of the entry.
+     * @return     true if the entry exists afterwards.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    boolean commit (File tmp, File file) {
+        file.getParentFile().mkdirs();
+
+        if (tmp.renameTo(file)) {
+            SIZE.addAndGet(file.length());
+            return true;
+        }
+
+        tmp.delete();
+
+        return file.isFile();
+    }
+
+    /**
+     * Deletes stale temporary files and evicts the least recently used
+     * entries until the folder fits into the given byte budget. Entries
+     * referenced by drafts in flight are never deleted. The files are
+     * deleted in small chunks to not monopolize the storage.
+     *
+     * @param maxSize The byte budget.
+     * @return        The number of freed bytes.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    long trim (long maxSize) throws InterruptedException {
+        File[] files = dir.listFiles();
+
+        if (files == null) {
+            SIZE.set(0);
+            return 0;
+        }
+
+        List<File> entries = new ArrayList<File>();
+        List<File> garbage = new ArrayList<File>();
+        long staleTime     = System.currentTimeMillis() - TMP_MAX_AGE;
+        long size          = 0;
+        long freed         = 0;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                entries.add(file);
+                size += sizeOf(file);
+            } else if (!file.getName().endsWith(TMP_SUFFIX)
+                    || file.lastModified() < staleTime) {
+                garbage.add(file);
+            }
+        }
+
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare (File a, File b) {
+                long x = a.lastModified(), y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+
+        for (File entry : entries) {
+            if (size <= maxSize)
+                break;
+
+            if (isPinned(entry.getName()))
+                continue;
+
+            garbage.add(entry);
+            size -= sizeOf(entry);
+        }
+
+        for (int i = 0; i < garbage.size(); i++) {
+            if (i > 0 && i % CHUNK_SIZE == 0) {
+                Thread.sleep(CHUNK_PAUSE);
+            }
+
+            File file = garbage.get(i);
+
+            if (!file.isDirectory()) {
+                freed += file.length();
+                file.delete();
+                continue;
+            }
+
+            synchronized (PINS) {
+                if (!PINS.containsKey(file.getName())) {
+                    freed += delete(file);
+                }
+            }
+        }
+
+        SIZE.set(size);
+
+        return freed;
+    }
+
+    /**
+     * If the folder has grown beyond the byte budget since the last trim.
+     *
+     * @param maxSize The byte budget.
+     */
+    static boolean isOverBudget (long maxSize) {
+        return SIZE.get() > maxSize;
+    }
+
+    /**
+     * Protects the entry from being evicted until it gets unpinned.
+     *
+     * @param key The key of the entry.
+     */
+    static void pin (String key) {
+        synchronized (PINS) {
+            Integer count = PINS.get(key);
+            PINS.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Releases the protection of the entry.
+     *
+     * @param key The key of the entry.
+     */
+    static void unpin (String key) {
+        synchronized (PINS) {
+            Integer count = PINS.get(key);
+
+            if (count == null || count <= 1) {
+                PINS.remove(key);
+            } else {
+                PINS.put(key, count - 1);
+            }
+        }
+    }
+
+    /**
+     * If the entry is referenced by a draft in flight.
+     *
+     * @param key The key of the entry.
+     */
+    private static boolean isPinned (String key) {
+        synchronized (PINS) {
+            return PINS.containsKey(key);
+        }
+    }
+
+    /**
+     * Builds a key out of the given parts that identify the content.
+     *
+     * @param parts Source identity like path, mtime or size.
+     * @return      The key in hex form.
+     */
+    static String key (Object... parts) {
+        MessageDigest digest = newDigest();
+        Charset utf8         = Charset.forName("UTF-8");
+
+        for (Object part : parts) {
+            digest.update(String.valueOf(part).getBytes(utf8));
+            digest.update((byte) 0);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Builds a key out of the chars of the given content.
+     *
+     * @param seq   The content.
+     * @param start The index of the first char to take into account.
+     * @return      The key in hex form.
+     */
+    static String key (CharSequence seq, int start) {
+        MessageDigest digest = newDigest();
+        byte[] buffer        = new byte[8192];
+        int length           = seq.length();
+
+        for (int pos = start; pos < length;) {
+            int count = Math.min(buffer.length, length - pos);
+
+            for (int i = 0; i < count; i++) {
+                buffer[i] = (byte) seq.charAt(pos++);
+            }
+
+            digest.update(buffer, 0, count);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Builds a key out of both bytes of each char of the text. Unlike
+     * the UTF-8 form of the text, this does not copy the text at once.
+     *
+     * @param text The text.
+     * @return     The key in hex form.
+     */
+    static String textKey (CharSequence text) {
+        MessageDigest digest = newDigest();
+        byte[] buffer        = new byte[8192];
+        int length           = text.length();
+
+        for (int pos = 0; pos < length;) {
+            int count = Math.min(buffer.length / 2, length - pos);
+
+            for (int i = 0; i < count; i++) {
+                char c            = text.charAt(pos++);
+                buffer[2 * i]     = (byte) (c >> 8);
+                buffer[2 * i + 1] = (byte) c;
+            }
+
+            digest.update(buffer, 0, count * 2);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Total size of the files within the folder.
+     */
+    private static long sizeOf (File dir) {
+        File[] files = dir.listFiles();
+        long size    = 0;
+
+        if (files == null)
+            return 0;
+
+        for (File file : files) {
+            size += file.length();
+        }
+
+        return size;
+    }
+
+    /**
+     * Deletes the folder including its files.
+     *
+     * @return The number of freed bytes.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static long delete (File dir) {
+        File[] files = dir.listFiles();
+        long size    = 0;
+
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+                file.delete();
+            }
+        }
+
+        dir.delete();
+
+        return size;
+    }
+
+    /**
+     * A new SHA-1 message digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The hex representation of the bytes.
+     */
+    private static String toHex (byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+}
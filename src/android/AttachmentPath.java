@@ -0,0 +1,103 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+/**
+ * Tells the kinds of attachment paths apart by their prefix.
+ */
+final class AttachmentPath {
+
+    // A native resource like res://icon.png
+    static final int RESOURCE = 0;
+
+    // A file of the internal app file system like app://databases/db.db3
+    static final int APP = 1;
+
+    // A file like file:///storage/emulated/0/Download/report.pdf
+    static final int ABSOLUTE = 2;
+
+    // A www asset like file://img/logo.png
+    static final int ASSET = 3;
+
+    // Base64 encoded content like base64:icon.png//iVBORw0KGgo...
+    static final int BASE64 = 4;
+
+    // An attachment uploaded in chunks like upload://1b2c...
+    static final int UPLOAD = 5;
+
+    // Any other URI like content://...
+    static final int URI = 6;
+
+    // The prefix of attachments which refer to an upload.
+    static final String UPLOAD_SCHEME = "upload://";
+
+    // The stats names of the kinds.
+    private static final String[] STAGES = {
+            "getUriForResourcePath", "getUriForAppInternalPath",
+            "getUriForAbsolutePath", "getUriForAssetPath",
+            "getUriForBase64Content", "getUriForUpload", "parseUri"
+    };
+
+    /**
+     * The kind of the attachment path.
+     *
+     * @param path The given path to the attachment.
+     */
+    static int getKind (String path) {
+        if (path.startsWith("res:"))
+            return RESOURCE;
+
+        if (path.startsWith("app://"))
+            return APP;
+
+        if (path.startsWith("file:///"))
+            return ABSOLUTE;
+
+        if (path.startsWith("file://"))
+            return ASSET;
+
+        if (path.startsWith("base64:"))
+            return BASE64;
+
+        if (path.startsWith(UPLOAD_SCHEME))
+            return UPLOAD;
+
+        return URI;
+    }
+
+    /**
+     * The name under which the resolving of the kind gets timed.
+     *
+     * @param kind One of the kinds above.
+     */
+    static String getStage (int kind) {
+        return STAGES[kind];
+    }
+
+    /**
+     * The scheme of the attachment path like base64 or res.
+     */
+    static String getScheme (String path) {
+        int end = path.indexOf(':');
+
+        return end > 0 ? path.substring(0, end) : "uri";
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.os.Build;
+import android.text.Html;
+import android.text.SpannedString;
+import android.util.LruCache;
+
+/**
+ * The body of a draft. Line breaks get normalized and HTML markup gets
+ * detected within a single pass. Only bodies with markup are converted
+ * into styled text, and the conversions are cached per body hash.
+ */
+final class Body {
+
+    // Max number of chars kept by the cache of converted bodies.
+    private static final int MAX_CACHE_SIZE = 512 * 1024;
+
+    // Converted HTML bodies by their hash.
+    private static final LruCache<String, CharSequence> CACHE =
+            new LruCache<String, CharSequence>(MAX_CACHE_SIZE) {
+                @Override
+                protected int sizeOf (String key, CharSequence value) {
+                    return value.length();
+                }
+            };
+
+    // The body with normalized line breaks.
+    private final String source;
+
+    // The text for the EXTRA_TEXT.
+    private final CharSequence text;
+
+    // If the source is HTML.
+    private final boolean isHtml;
+
+    /**
+     * Initializes the body.
+     */
+    private Body (String source, CharSequence text, boolean isHtml) {
+        this.source = source;
+        this.text   = text;
+        this.isHtml = isHtml;
+    }
+
+    /**
+     * Processes the raw body of the draft.
+     *
+     * @param body   The body as passed by the app.
+     * @param isHtml If the body is HTML.
+     * @return       The processed body.
+     */
+    static Body parse (String body, boolean isHtml) {
+        BodyScan scan = BodyScan.scan(body, isHtml);
+
+        if (!isHtml)
+            return new Body(scan.source, scan.source, false);
+
+        if (!scan.markup)
+            return new Body(scan.source, scan.plain, true);
+
+        return new Body(scan.source, fromHtml(scan.source), true);
+    }
+
+    /**
+     * The estimated bytes needed to process the body and to measure its
+     * parcel size. Plain text may get copied once to normalize the line
+     * breaks. HTML also builds the collapsed or styled text, which takes
+     * about twice the source for its spans.
+     *
+     * @param body   The body as passed by the app.
+     * @param isHtml If the body is HTML.
+     * @return       The estimate in bytes.
+     */
+    static long estimateSize (String body, boolean isHtml) {
+        long chars = body.length() * 2L;
+
+        return isHtml ? chars * 5 : chars * 2;
+    }
+
+    /**
+     * The estimated bytes held by the processed body.
+     */
+    long getSize() {
+        long size = source.length() * 2L;
+
+        if (text != source) {
+            size += text.length() * 2L;
+        }
+
+        return size;
+    }
+
+    /**
+     * The body with normalized line breaks.
+     */
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * The text for the EXTRA_TEXT, styled if the body has HTML markup.
+     */
+    CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * If the source is HTML.
+     */
+    boolean isHtml() {
+        return isHtml;
+    }
+
+    /**
+     * Converts the HTML into styled text or takes it from the cache.
+     *
+     * @param html The HTML source.
+     * @return     The styled text.
+     */
+    @SuppressWarnings("deprecation")
+    private static CharSequence fromHtml (String html) {
+        String key        = AttachmentCache.textKey(html);
+        CharSequence text = CACHE.get(key);
+
+        if (text != null)
+            return text;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            text = new SpannedString(Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY));
+        } else {
+            text = new SpannedString(Html.fromHtml(html));
+        }
+
+        CACHE.put(key, text);
+
+        return text;
+    }
+
+}
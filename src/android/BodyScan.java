@@ -0,0 +1,99 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+/**
+ * The single pass over a raw body. Normalizes the line breaks and, for
+ * HTML bodies, detects markup while it collapses the text of bodies
+ * without any.
+ */
+final class BodyScan {
+
+    // The body with normalized line breaks.
+    final String source;
+
+    // The collapsed text of an HTML body without markup, otherwise null.
+    final String plain;
+
+    // If the HTML body has markup.
+    final boolean markup;
+
+    /**
+     * Initializes the result.
+     */
+    private BodyScan (String source, String plain, boolean markup) {
+        this.source = source;
+        this.plain  = plain;
+        this.markup = markup;
+    }
+
+    /**
+     * Scans the raw body of the draft.
+     *
+     * @param body   The body as passed by the app.
+     * @param isHtml If the body is HTML.
+     * @return       The result of the scan.
+     */
+    static BodyScan scan (String body, boolean isHtml) {
+        int length           = body.length();
+        StringBuilder source = null;
+        StringBuilder plain  = isHtml ? new StringBuilder(length) : null;
+        boolean markup       = false;
+
+        for (int i = 0; i < length; i++) {
+            char c = body.charAt(i);
+
+            if (c == '\r' && i + 1 < length && body.charAt(i + 1) == '\n') {
+                if (source == null) {
+                    source = new StringBuilder(length).append(body, 0, i);
+                }
+                continue;
+            }
+
+            if (source != null) {
+                source.append(c);
+            }
+
+            if (plain == null)
+                continue;
+
+            if (c == '<' || c == '&') {
+                markup = true;
+                plain  = null;
+            } else if (c != ' ' && c != '\n') {
+                plain.append(c);
+            } else if (plain.length() > 0 && !isSpace(plain.charAt(plain.length() - 1))) {
+                plain.append(' ');
+            }
+        }
+
+        String text = source != null ? source.toString() : body;
+
+        return new BodyScan(text, plain != null ? plain.toString() : null, markup);
+    }
+
+    /**
+     * If the char is a space that HTML collapses.
+     */
+    private static boolean isSpace (char c) {
+        return c == ' ' || c == '\n';
+    }
+
+}
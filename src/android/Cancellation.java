@@ -0,0 +1,101 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+/**
+ * Lets the work of a request stop early, either because it got cancelled
+ * or because its deadline has passed. Long running loops ask the token
+ * regularly, and the thread working on the request gets interrupted to
+ * leave blocking calls.
+ */
+final class Cancellation implements Streams.Checkpoint {
+
+    // The error code for a cancelled request.
+    static final String CANCELLED = "CANCELLED";
+
+    // The error code for a request which took longer than its timeout.
+    static final String TIMEOUT = "TIMEOUT";
+
+    // The time in ns by which the request has to be done.
+    private final long deadline;
+
+    // If the request got cancelled.
+    private volatile boolean cancelled;
+
+    // The thread working on the request.
+    private Thread thread;
+
+    /**
+     * Initializes the token.
+     *
+     * @param timeout The timeout in ms or 0 for none.
+     */
+    Cancellation (long timeout) {
+        deadline = timeout > 0
+                ? System.nanoTime() + timeout * 1000000 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Marks the current thread as the one working on the request.
+     */
+    synchronized void attach() {
+        thread = Thread.currentThread();
+    }
+
+    /**
+     * Releases the current thread from the request and clears a pending
+     * interrupt, so that the thread can be reused for other work.
+     */
+    synchronized void detach() {
+        thread = null;
+        Thread.interrupted();
+    }
+
+    /**
+     * Cancels the request and interrupts its thread.
+     */
+    void cancel() {
+        cancelled = true;
+
+        synchronized (this) {
+            if (thread != null) thread.interrupt();
+        }
+    }
+
+    /**
+     * Stops the work if the request got cancelled or timed out.
+     */
+    public void check() {
+        if (cancelled || Thread.currentThread().isInterrupted())
+            throw new ComposerException(CANCELLED, "The request has been cancelled");
+
+        if (System.nanoTime() > deadline)
+            throw new ComposerException(TIMEOUT, "The request has timed out");
+    }
+
+    /**
+     * The time left until the deadline in ns.
+     */
+    long getRemaining() {
+        return deadline == Long.MAX_VALUE
+                ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide index of the installed email clients. The package manager
+ * is asked only once and the answers are kept until a package gets added,
+ * removed or changed.
+ */
+final class ClientIndex extends BroadcastReceiver {
+
+    // The shared instance.
+    private static ClientIndex instance;
+
+    // The application context.
+    private final Context ctx;
+
+    // Package IDs of the enabled email clients or null if stale.
+    private volatile List<String> clientIds;
+
+    // Results of previous isAppInstalled lookups.
+    private final Map<String, Boolean> apps = new ConcurrentHashMap<>();
+
+    // Bumped by invalidate, so that lookups which started before do not
+    // publish their outdated result.
+    private volatile int generation;
+
+    // Number of lookups answered from the index.
+    private final AtomicLong hits = new AtomicLong();
+
+    // Number of lookups that had to ask the package manager.
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Initializes the index.
+     *
+     * @param ctx The application context.
+     */
+    private ClientIndex (Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * The shared index. Registers for package updates on first use.
+     *
+     * @param ctx Any context of the app.
+     * @return    The process-wide index.
+     */
+    static synchronized ClientIndex get (Context ctx) {
+        if (instance != null)
+            return instance;
+
+        Context app         = ctx.getApplicationContext();
+        IntentFilter filter = new IntentFilter();
+
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+
+        instance = new ClientIndex(app);
+        app.registerReceiver(instance, filter);
+
+        return instance;
+    }
+
+    /**
+     * Called when a package got added, removed or changed.
+     *
+     * @param context The context in which the receiver is running.
+     * @param intent  The received broadcast.
+     */
+    @Override
+    public void onReceive (Context context, Intent intent) {
+        invalidate();
+    }
+
+    /**
+     * Forget everything the index knows so far.
+     */
+    synchronized void invalidate() {
+        generation++;
+        clientIds = null;
+        apps.clear();
+    }
+
+    /**
+     * Get package IDs for all available email clients. The result is only
+     * kept if no package has changed while asking the package manager.
+     */
+    List<String> getEmailClientIds() {
+        List<String> ids = clientIds;
+
+        if (ids != null) {
+            hits.incrementAndGet();
+            return ids;
+        }
+
+        int gen = generation;
+
+        misses.incrementAndGet();
+        ids = queryEmailClientIds();
+
+        synchronized (this) {
+            if (gen == generation) {
+                clientIds = ids;
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Ask the index if the app is installed on the device.
+     *
+     * @param id    The app id.
+     *
+     * @return true if yes otherwise false.
+     */
+    boolean isAppInstalled (String id) {
+        Boolean installed = apps.get(id);
+
+        if (installed != null) {
+            hits.incrementAndGet();
+            return installed;
+        }
+
+        int gen = generation;
+
+        misses.incrementAndGet();
+        installed = queryAppInstalled(id);
+
+        synchronized (this) {
+            if (gen == generation) {
+                apps.put(id, installed);
+            }
+        }
+
+        return installed;
+    }
+
+    /**
+     * Number of lookups answered from the index.
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that had to ask the package manager.
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Ask the package manager for all enabled email clients.
+     */
+    private List<String> queryEmailClientIds() {
+        Intent           intent = Impl.getEmailIntent();
+        PackageManager       pm = ctx.getPackageManager();
+        List<ResolveInfo> infos = pm.queryIntentActivities(intent, 0);
+        List<String>        ids = new ArrayList<>();
+
+        for (ResolveInfo app : infos) {
+            if (app.activityInfo.isEnabled()) {
+                ids.add(app.activityInfo.packageName);
+            }
+        }
+
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * Ask the package manager if the app is installed on the device.
+     *
+     * @param id    The app id.
+     *
+     * @return true if yes otherwise false.
+     */
+    private boolean queryAppInstalled (String id) {
+        try {
+            return ctx.getPackageManager()
+                    .getPackageInfo(id, 0)
+                    .applicationInfo.enabled;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+}
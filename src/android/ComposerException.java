@@ -0,0 +1,74 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Failure of a request which is reported back to JavaScript with an
+ * error code.
+ */
+final class ComposerException extends RuntimeException {
+
+    // The draft exceeds the size an intent may have.
+    static final String DRAFT_TOO_LARGE = "DRAFT_TOO_LARGE";
+
+    // The draft could not be built for an unexpected reason.
+    static final String OPEN_FAILED = "OPEN_FAILED";
+
+    // The error code.
+    private final String code;
+
+    /**
+     * Initializes the exception.
+     *
+     * @param code    The error code.
+     * @param message The detail message.
+     */
+    ComposerException (String code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * The error code.
+     */
+    String getCode() {
+        return code;
+    }
+
+    /**
+     * The error as passed to the JavaScript callback.
+     */
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+
+        try {
+            json.put("code", code);
+            json.put("message", getMessage());
+        } catch (JSONException ignore) {
+            // Nothing to do
+        }
+
+        return json;
+    }
+
+}
@@ -22,6 +22,9 @@ package de.appplant.cordova.emailcomposer;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Configuration;
+import android.util.Base64;
+import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
@@ -33,8 +36,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.Manifest.permission.GET_ACCOUNTS;
 import static android.Manifest.permission.READ_EXTERNAL_STORAGE;
@@ -46,11 +56,43 @@ public class EmailComposer extends CordovaPlugin {
     // The log tag for this plugin
     static final String LOG_TAG = "EmailComposer";
 
-    // The callback context used when calling back into JavaScript
-    private CallbackContext command;
+    // The callback contexts of the requests waiting for an activity or
+    // permission result, by their request code
+    private final Requests<CallbackContext> requests = new Requests<CallbackContext>();
+
+    // The drafts currently shown to the user, by their request code
+    private final Map<Integer, Impl> drafts = new ConcurrentHashMap<Integer, Impl>();
+
+    // The cancellation tokens of the drafts being built, by their request code
+    private final Map<Integer, Cancellation> running =
+            new ConcurrentHashMap<Integer, Cancellation>();
+
+    // The permission codes of the pending permission requests
+    private final Map<Integer, int[]> permissions =
+            new ConcurrentHashMap<Integer, int[]>();
+
+    // The grant state by permission, dropped when the app resumes
+    private final Map<String, Boolean> grants =
+            new ConcurrentHashMap<String, Boolean>();
+
+    // The registered draft templates
+    private final Templates templates = new Templates();
+
+    // The attachments uploaded in chunks
+    private Uploads uploads;
+
+    // The drafts built ahead of open
+    private PreparedDrafts preparedDrafts;
+
+    // The executors for queries and I/O
+    private final Lanes lanes = new Lanes();
+
+    // If a trim of the attachment folder is queued or running
+    private final AtomicBoolean trimming = new AtomicBoolean();
 
     /**
-     * Delete externalCacheDirectory on app start
+     * Trim the attachment folder in the background once the first frame
+     * has been drawn.
      *
      * @param cordova Cordova-instance
      * @param webView CordovaWebView-instance
@@ -58,15 +100,37 @@ public class EmailComposer extends CordovaPlugin {
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
-        AssetUtil.cleanupAttachmentFolder(getContext());
+
+        uploads        = new Uploads(getContext());
+        preparedDrafts = new PreparedDrafts(lanes.getIoLane(), lanes.getAttachmentLane());
+
+        Tracing.setEnabled(preferences.getBoolean("EmailComposerTrace", false));
+        MemoryBudget.setDefaultLimit(preferences.getInteger("EmailComposerMemoryBudget", 0) * 1024L * 1024L);
+
+        final Runnable cleanup = new Runnable() {
+            public void run() {
+                AssetUtil.cleanupAttachmentFolder(getContext(), getCacheSize());
+                Uploads.cleanup(getContext());
+            }
+        };
+
+        webView.getView().post(new Runnable() {
+            public void run() {
+                try {
+                    lanes.getIoLane().execute(cleanup);
+                } catch (RejectedExecutionException e) {
+                    Log.w(LOG_TAG, "Skipped cleanup: " + e.getMessage());
+                }
+            }
+        });
     }
 
     /**
      * Executes the request.
      * <p>
      * This method is called from the WebView thread.
-     * To do a non-trivial amount of work, use:
-     * cordova.getThreadPool().execute(runnable);
+     * To do a non-trivial amount of work, use one of the lanes:
+     * run(lanes.getQueryLane(), runnable, callback);
      * <p>
      * To run on the UI thread, use:
      * cordova.getActivity().runOnUiThread(runnable);
@@ -81,20 +145,51 @@ public class EmailComposer extends CordovaPlugin {
     public boolean execute(String action, JSONArray args,
                            CallbackContext callback) throws JSONException {
 
-        this.command = callback;
-
         if        ("open".equalsIgnoreCase(action)) {
-            open(args.getJSONObject(0));
+            open(args.getJSONObject(0), callback);
         } else if ("client".equalsIgnoreCase(action)) {
-            client(args.getString(0));
+            client(args.getString(0), callback);
         } else if ("check".equalsIgnoreCase(action)) {
-            check(args.optInt(0, 0));
+            check(getCodes(args), callback);
         } else if ("request".equalsIgnoreCase(action)) {
-            request(args.optInt(0, 0));
+            request(getCodes(args), callback);
         } else if ("clients".equalsIgnoreCase(action)) {
-            clients();
+            clients(callback);
         } else if ("account".equalsIgnoreCase(action)) {
-            account();
+            account(callback);
+        } else if ("accounts".equalsIgnoreCase(action)) {
+            accounts(callback);
+        } else if ("capabilities".equalsIgnoreCase(action)) {
+            capabilities(args.optJSONArray(0), callback);
+        } else if ("register".equalsIgnoreCase(action)) {
+            templates.register(args.getString(0), args.getJSONObject(1));
+            callback.success();
+        } else if ("unregister".equalsIgnoreCase(action)) {
+            templates.unregister(args.getString(0));
+            callback.success();
+        } else if ("stage".equalsIgnoreCase(action)) {
+            stage(args.getString(0), callback);
+        } else if ("append".equalsIgnoreCase(action)) {
+            append(args.getString(0), args.getString(1), callback);
+        } else if ("prepare".equalsIgnoreCase(action)) {
+            prepare(args.getJSONObject(0), callback);
+        } else if ("release".equalsIgnoreCase(action)) {
+            preparedDrafts.release(args.getString(0));
+            callback.success();
+        } else if ("discard".equalsIgnoreCase(action)) {
+            uploads.discard(args.getString(0));
+            callback.success();
+        } else if ("stats".equalsIgnoreCase(action)) {
+            callback.success(getStats());
+        } else if ("resetStats".equalsIgnoreCase(action)) {
+            resetStats();
+            callback.success();
+        } else if ("trace".equalsIgnoreCase(action)) {
+            Tracing.setEnabled(args.optBoolean(0));
+            callback.success();
+        } else if ("cancel".equalsIgnoreCase(action)) {
+            cancelAll();
+            callback.success();
         } else {
             return false;
         }
@@ -102,6 +197,19 @@ public class EmailComposer extends CordovaPlugin {
         return true;
     }
 
+    /**
+     * The byte budget of the attachment folder as configured through the
+     * EmailComposerCacheSize preference in megabytes.
+     */
+    private long getCacheSize() {
+        int size = preferences.getInteger("EmailComposerCacheSize", -1);
+
+        if (size < 0)
+            return AttachmentCache.DEFAULT_MAX_SIZE;
+
+        return size * 1024L * 1024L;
+    }
+
     /**
      * Returns the application context.
      */
@@ -112,24 +220,27 @@ public class EmailComposer extends CordovaPlugin {
     /**
      * Finds out if the given mail client is installed.
      *
-     * @param id The app id.
+     * @param id       The app id.
+     * @param callback The callback context of the request.
      */
-    private void client(final String id) {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void client(final String id, final CallbackContext callback) {
+        run(lanes.getQueryLane(), new Runnable() {
             public void run() {
                 Impl impl   = new Impl(getContext());
                 boolean res = impl.isAppInstalled(id);
 
-                sendResult(new PluginResult(Status.OK, res));
+                callback.sendPluginResult(new PluginResult(Status.OK, res));
             }
-        });
+        }, callback);
     }
 
     /**
      * List of the package IDs from all available email clients.
+     *
+     * @param callback The callback context of the request.
      */
-    private void clients() {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void clients(final CallbackContext callback) {
+        run(lanes.getQueryLane(), new Runnable() {
             public void run() {
                 Impl impl              = new Impl(getContext());
                 List<String> ids       = impl.getEmailClientIds();
@@ -139,73 +250,387 @@ public class EmailComposer extends CordovaPlugin {
                     res.add(new PluginResult(Status.OK, id));
                 }
 
-                sendResult(new PluginResult(Status.OK, res));
+                callback.sendPluginResult(new PluginResult(Status.OK, res));
             }
-        });
+        }, callback);
     }
 
     /**
      * Tries to figure out if an email account is setup.
+     *
+     * @param callback The callback context of the request.
      */
-    private void account() {
-        cordova.getThreadPool().execute(new Runnable() {
+    private void account(final CallbackContext callback) {
+        run(lanes.getQueryLane(), new Runnable() {
             public void run() {
                 Impl impl   = new Impl(getContext());
                 boolean res = impl.isEmailAccountConfigured();
 
-                sendResult(new PluginResult(Status.OK, res));
+                callback.sendPluginResult(new PluginResult(Status.OK, res));
             }
-        });
+        }, callback);
+    }
+
+    /**
+     * The number and types of the email accounts.
+     *
+     * @param callback The callback context of the request.
+     */
+    private void accounts(final CallbackContext callback) {
+        run(lanes.getQueryLane(), new Runnable() {
+            public void run() {
+                Impl impl      = new Impl(getContext());
+                JSONObject res = impl.getEmailAccounts().toJSON();
+
+                callback.sendPluginResult(new PluginResult(Status.OK, res));
+            }
+        }, callback);
+    }
+
+    /**
+     * Probes permissions, account, installed clients and the given apps at
+     * once. The probes run in parallel and answer with a single result.
+     * A probe which no other thread has picked up runs on the calling
+     * thread, so that a busy lane can not block the request.
+     *
+     * @param ids      The app ids to look for.
+     * @param callback The callback context of the request.
+     */
+    private void capabilities(final JSONArray ids, final CallbackContext callback) {
+        final Lane lane = lanes.getQueryLane();
+
+        run(lane, new Runnable() {
+            public void run() {
+                final Impl impl = new Impl(getContext());
+                JSONObject res  = new JSONObject();
+                JSONObject perm = new JSONObject();
+                JSONArray apps  = new JSONArray();
+
+                FutureTask<Boolean> account = new FutureTask<Boolean>(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return impl.isEmailAccountConfigured();
+                    }
+                });
+
+                FutureTask<List<String>> clients = new FutureTask<List<String>>(new Callable<List<String>>() {
+                    public List<String> call() {
+                        return impl.getEmailClientIds();
+                    }
+                });
+
+                fork(lane, account);
+                fork(lane, clients);
+
+                try {
+                    for (int code = 1; code <= 2; code++) {
+                        perm.put(String.valueOf(code), hasPermission(code));
+                    }
+
+                    for (int i = 0; ids != null && i < ids.length(); i++) {
+                        apps.put(impl.isAppInstalled(ids.optString(i)));
+                    }
+
+                    clients.run();
+                    account.run();
+
+                    res.put("permissions", perm);
+                    res.put("clients", new JSONArray(clients.get()));
+                    res.put("account", account.get());
+                    res.put("apps", apps);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Failed to probe capabilities");
+                    e.printStackTrace();
+                }
+
+                callback.sendPluginResult(new PluginResult(Status.OK, res));
+            }
+        }, callback);
     }
 
     /**
-     * Sends an intent to the email app.
+     * Creates an empty upload for an attachment.
      *
-     * @param props The email properties like subject or body
+     * @param fileName The name of the attachment.
+     * @param callback The callback context of the request.
      */
-    private void open(final JSONObject props) {
-        final EmailComposer me = this;
+    private void stage(final String fileName, final CallbackContext callback) {
+        run(lanes.getIoLane(), new Runnable() {
+            public void run() {
+                try {
+                    callback.success(uploads.create(fileName));
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, e.getMessage());
+                    callback.error(e.getMessage());
+                }
+            }
+        }, callback);
+    }
 
-        cordova.getThreadPool().execute(new Runnable() {
+    /**
+     * Appends a chunk of bytes to the upload. The bridge passes an
+     * ArrayBuffer as base64, which gets decoded on the lane.
+     *
+     * @param handle   The handle of the upload.
+     * @param chunk    The base64 encoded bytes to append.
+     * @param callback The callback context of the request.
+     */
+    private void append(final String handle, final String chunk,
+                        final CallbackContext callback) {
+        run(lanes.getIoLane(), new Runnable() {
             public void run() {
                 try {
-                    Impl impl    = new Impl(getContext());
-                    Intent draft = impl.getDraft(props);
+                    byte[] bytes = Base64.decode(chunk, Base64.DEFAULT);
+                    long size    = uploads.append(handle, bytes);
+                    int res      = (int) Math.min(size, Integer.MAX_VALUE);
+
+                    callback.sendPluginResult(new PluginResult(Status.OK, res));
+                } catch (IOException | IllegalArgumentException e) {
+                    Log.e(LOG_TAG, e.getMessage());
+                    callback.error(e.getMessage());
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Sends an intent to the email app. Building the draft stops once the
+     * request gets cancelled or its timeout has passed.
+     *
+     * @param props    The email properties like subject or body
+     * @param callback The callback context of the request.
+     */
+    private void open(final JSONObject props, final CallbackContext callback) {
+        final EmailComposer me   = this;
+        final int code           = requests.add(callback);
+        final Cancellation token = new Cancellation(props.optLong("timeout"));
+        final long start         = Stats.start();
+
+        running.put(code, token);
 
-                    cordova.startActivityForResult(me, draft, 0);
+        Runnable task = new Runnable() {
+            public void run() {
+                boolean traced = Tracing.begin("EmailComposer.open");
+
+                token.attach();
+
+                try {
+                    Intent draft = getDraft(code, props, token);
+                    token.check();
+                    running.remove(code);
+
+                    long launch     = Stats.start();
+                    boolean section = Tracing.begin("startActivityForResult");
+
+                    try {
+                        cordova.startActivityForResult(me, draft, code);
+                    } finally {
+                        Tracing.end(section);
+                    }
+
+                    Stats.stop("startActivityForResult", launch);
+                    Stats.stop("open", start);
                 } catch (ActivityNotFoundException e) {
-                    onActivityResult(0, 0, null);
+                    onActivityResult(code, 0, null);
+                } catch (ComposerException e) {
+                    Log.e(LOG_TAG, e.getMessage());
+                    Stats.count("errors." + e.getCode());
+                    releaseDraft(code);
+                    sendResult(code, new PluginResult(Status.ERROR, e.toJSON()));
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, "Invalid template variables");
+                    releaseDraft(code);
+                    sendResult(code, new PluginResult(Status.JSON_EXCEPTION));
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to open the draft", e);
+                    Stats.count("errors." + ComposerException.OPEN_FAILED);
+                    releaseDraft(code);
+                    sendResult(code, new PluginResult(Status.ERROR, new ComposerException(
+                            ComposerException.OPEN_FAILED, String.valueOf(e)).toJSON()));
+                } finally {
+                    running.remove(code);
+                    token.detach();
+                    Tracing.end(traced);
                 }
             }
-        });
+        };
+
+        try {
+            lanes.getOpenLane().execute(task);
+        } catch (RejectedExecutionException e) {
+            running.remove(code);
+            Stats.count("errors." + Lanes.BUSY);
+            sendResult(code, new PluginResult(Status.ERROR, Lanes.busy(e).toJSON()));
+        }
     }
 
     /**
-     * Check if the given permissions has been granted.
+     * The intent for the draft to open. Takes a prepared draft, renders a
+     * template or builds the draft from the given properties.
      *
-     * @param code The code number of the permission to check for.
+     * @param code  The request code of the draft.
+     * @param props The email properties, a template or a prepared draft.
+     * @param token The cancellation token of the request.
+     *
+     * @return The intent to send to the email app.
      */
-    private void check(int code) {
-        check(getPermission(code));
+    private Intent getDraft(int code, JSONObject props, Cancellation token)
+            throws JSONException {
+        if (PreparedDrafts.isPrepared(props)) {
+            PreparedDrafts.Draft draft = preparedDrafts.take(props);
+            drafts.put(code, draft.getImpl());
+            return draft.getIntent();
+        }
+
+        JSONObject params = Templates.isTemplate(props)
+                ? templates.render(props) : props;
+        Impl impl         = new Impl(getContext(), token, lanes.getAttachmentLane());
+
+        drafts.put(code, impl);
+
+        return impl.getDraft(params);
     }
 
     /**
-     * Check if the given permission has been granted.
+     * Builds the draft in the background and returns its handle, so that
+     * a later open only needs to launch it.
      *
-     * @param permission The permission to check for.
+     * @param props    The email properties like subject or body.
+     * @param callback The callback context of the request.
      */
-    private void check(String permission) {
-        Boolean granted = cordova.hasPermission(permission);
-        sendResult(new PluginResult(Status.OK, granted));
+    private void prepare(JSONObject props, CallbackContext callback) {
+        try {
+            JSONObject params = Templates.isTemplate(props)
+                    ? templates.render(props) : props;
+
+            callback.success(preparedDrafts.prepare(getContext(), params));
+        } catch (RejectedExecutionException e) {
+            callback.error(Lanes.busy(e).toJSON());
+        } catch (ComposerException e) {
+            callback.error(e.toJSON());
+        } catch (JSONException e) {
+            callback.sendPluginResult(new PluginResult(Status.JSON_EXCEPTION));
+        }
     }
 
     /**
-     * Request given permission.
+     * Releases the attachments of the draft, so that the attachment folder
+     * can be trimmed again.
      *
-     * @param code The code number of the permission to request for.
+     * @param code The request code of the draft.
      */
-    private void request(int code) {
-        cordova.requestPermission(this, code, getPermission(code));
+    private void releaseDraft(int code) {
+        Impl draft = drafts.remove(code);
+
+        if (draft != null) {
+            draft.release();
+            trimAttachmentFolder();
+        }
+    }
+
+    /**
+     * Trims the attachment folder on the I/O lane once it has grown beyond
+     * its byte budget. At most one trim is queued at a time.
+     */
+    private void trimAttachmentFolder() {
+        final long maxSize = getCacheSize();
+
+        if (!AttachmentCache.isOverBudget(maxSize) || !trimming.compareAndSet(false, true))
+            return;
+
+        try {
+            lanes.getIoLane().execute(new Runnable() {
+                public void run() {
+                    try {
+                        AssetUtil.cleanupAttachmentFolder(getContext(), maxSize);
+                    } finally {
+                        trimming.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            trimming.set(false);
+            Log.w(LOG_TAG, "Skipped cleanup: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Check if the given permissions have been granted.
+     *
+     * @param codes    The code numbers of the permissions to check for.
+     * @param callback The callback context of the request.
+     */
+    private void check(int[] codes, CallbackContext callback) {
+        JSONObject res = new JSONObject();
+
+        try {
+            for (int code : codes) {
+                res.put(String.valueOf(code), hasPermission(code));
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to write grant results");
+        }
+
+        callback.sendPluginResult(new PluginResult(Status.OK, res));
+    }
+
+    /**
+     * Request the given permissions at once.
+     *
+     * @param codes    The code numbers of the permissions to request for.
+     * @param callback The callback context of the request.
+     */
+    private void request(int[] codes, CallbackContext callback) {
+        int reqCode   = requests.add(callback);
+        String[] list = new String[codes.length];
+
+        for (int i = 0; i < codes.length; i++) {
+            list[i] = getPermission(codes[i]);
+        }
+
+        permissions.put(reqCode, codes);
+
+        cordova.requestPermissions(this, reqCode, list);
+    }
+
+    /**
+     * If the permission for the internal code has been granted. The grant
+     * state is looked up once until the app resumes or gets a permission
+     * result.
+     *
+     * @param code The internal code number.
+     */
+    private boolean hasPermission(int code) {
+        String permission = getPermission(code);
+        Boolean granted   = grants.get(permission);
+
+        if (granted == null) {
+            granted = cordova.hasPermission(permission);
+            grants.put(permission, granted);
+        }
+
+        return granted;
+    }
+
+    /**
+     * The permission codes passed as a single number or as an array.
+     *
+     * @param args The arguments of the check or request action.
+     */
+    private int[] getCodes(JSONArray args) {
+        JSONArray list = args.optJSONArray(0);
+
+        if (list == null)
+            return new int[] { args.optInt(0, 0) };
+
+        int[] codes = new int[list.length()];
+
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = list.optInt(i, 0);
+        }
+
+        return codes;
     }
 
     /**
@@ -224,16 +649,134 @@ public class EmailComposer extends CordovaPlugin {
     }
 
     /**
-     * Send plugin result and reset plugin state.
+     * Send plugin result to the request and forget about it.
      *
-     * @param result The result to send to the webview.
+     * @param reqCode The request code.
+     * @param result  The result to send to the webview.
      */
-    private void sendResult(PluginResult result) {
-        if (command != null) {
-            command.sendPluginResult(result);
+    private void sendResult(int reqCode, PluginResult result) {
+        CallbackContext callback = requests.remove(reqCode);
+
+        if (callback != null) {
+            callback.sendPluginResult(result);
         }
+    }
 
-        command = null;
+    /**
+     * The timers and counters of the plugin together with the ones of the
+     * client index, the templates and the lanes.
+     */
+    private JSONObject getStats() throws JSONException {
+        ClientIndex index  = ClientIndex.get(getContext());
+        JSONObject stats   = Stats.toJSON();
+        JSONObject clients = new JSONObject();
+        JSONObject tpls    = new JSONObject();
+
+        clients.put("hits", index.getHits());
+        clients.put("misses", index.getMisses());
+        tpls.put("renders", templates.getRenders());
+        tpls.put("bytesSaved", templates.getBytesSaved());
+
+        stats.put("clientIndex", clients);
+        stats.put("templates", tpls);
+        stats.put("lanes", lanes.toJSON());
+
+        return stats;
+    }
+
+    /**
+     * Forgets the timers and counters recorded so far.
+     */
+    private void resetStats() {
+        Stats.reset();
+        ClientIndex.get(getContext()).resetCounters();
+        templates.resetCounters();
+        lanes.resetMetrics();
+    }
+
+    /**
+     * Runs the task on the lane or tells the request that the lane is busy.
+     *
+     * @param lane     The lane to run the task on.
+     * @param task     The task to run.
+     * @param callback The callback context of the request.
+     */
+    private void run(Lane lane, Runnable task, CallbackContext callback) {
+        try {
+            lane.execute(task);
+        } catch (RejectedExecutionException e) {
+            callback.error(Lanes.busy(e).toJSON());
+        }
+    }
+
+    /**
+     * Runs the task on the lane if there is room for it. Otherwise the
+     * task is left for the caller to run.
+     *
+     * @param lane The lane to run the task on.
+     * @param task The task to run.
+     */
+    private void fork(Lane lane, FutureTask<?> task) {
+        try {
+            lane.execute(task);
+        } catch (RejectedExecutionException ignore) {
+            // Runs on the calling thread
+        }
+    }
+
+    /**
+     * Cancels the drafts being built. Drafts already shown to the user are
+     * not affected.
+     */
+    private void cancelAll() {
+        for (Cancellation token : running.values()) {
+            token.cancel();
+        }
+    }
+
+    /**
+     * Forgets the resolved resource ids, which may differ for the new
+     * configuration.
+     *
+     * @param newConfig The new device configuration.
+     */
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        AssetUtil.invalidateResIds();
+    }
+
+    /**
+     * Drops the grant state, as the user might have changed the permissions
+     * within the settings meanwhile.
+     *
+     * @param multitasking Flag indicating if multitasking is turned on for app.
+     */
+    @Override
+    public void onResume(boolean multitasking) {
+        super.onResume(multitasking);
+        grants.clear();
+    }
+
+    /**
+     * Cancels the drafts being built and releases the prepared drafts when
+     * the webview navigates away.
+     */
+    @Override
+    public void onReset() {
+        cancelAll();
+        preparedDrafts.releaseAll();
+    }
+
+    /**
+     * Cancels the drafts being built, releases the prepared drafts and
+     * stops the lanes when the plugin goes away.
+     */
+    @Override
+    public void onDestroy() {
+        cancelAll();
+        preparedDrafts.releaseAll();
+        lanes.shutdown();
     }
 
     /**
@@ -249,11 +792,15 @@ public class EmailComposer extends CordovaPlugin {
      */
     @Override
     public void onActivityResult(int reqCode, int resCode, Intent intent) {
-        sendResult(new PluginResult(Status.OK));
+        releaseDraft(reqCode);
+        sendResult(reqCode, new PluginResult(Status.OK));
     }
 
     /**
-     * Called by the system when the user grants permissions.
+     * Called by the system when the user grants permissions. The account
+     * summary is dropped, as a granted GET_ACCOUNTS permission reveals
+     * more accounts. The grant state of each requested code is sent back
+     * at once, a code without a result counts as denied.
      *
      * @param code         The requested code.
      * @param permissions  The requested permissions.
@@ -263,17 +810,24 @@ public class EmailComposer extends CordovaPlugin {
     public void onRequestPermissionResult(int code, String[] permissions,
                                           int[] grantResults) {
 
-        List<PluginResult> messages = new ArrayList<PluginResult>();
-        Boolean granted             = false;
+        int[] codes    = this.permissions.remove(code);
+        JSONObject res = new JSONObject();
 
-        if (grantResults.length > 0) {
-            granted = grantResults[0] == PERMISSION_GRANTED;
-        }
+        grants.clear();
+        AccountIndex.get(getContext()).invalidate();
+
+        try {
+            for (int i = 0; codes != null && i < codes.length; i++) {
+                boolean granted = i < grantResults.length
+                        && grantResults[i] == PERMISSION_GRANTED;
 
-        messages.add(new PluginResult(Status.OK, granted));
-        messages.add(new PluginResult(Status.OK, code));
+                res.put(String.valueOf(codes[i]), granted);
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to write grant results");
+        }
 
-        sendResult(new PluginResult(Status.OK, messages));
+        sendResult(code, new PluginResult(Status.OK, res));
     }
 
 }
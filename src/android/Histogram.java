@@ -0,0 +1,120 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets. The last bucket takes all values
+ * above the highest bound. Recording is lock-free.
+ */
+final class Histogram {
+
+    // Upper bounds of the buckets.
+    private final long[] bounds;
+
+    // Number of values per bucket.
+    private final AtomicLongArray buckets;
+
+    // Number of values.
+    private final AtomicLong count = new AtomicLong();
+
+    // Sum of the values.
+    private final AtomicLong sum = new AtomicLong();
+
+    // Highest value.
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Initializes the histogram.
+     *
+     * @param bounds Upper bounds of the buckets.
+     */
+    Histogram (long[] bounds) {
+        this.bounds  = bounds;
+        this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * Counts the value.
+     */
+    void record (long value) {
+        int i = 0;
+        long prev;
+
+        while (i < bounds.length && value > bounds[i]) i++;
+
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        while (value > (prev = max.get()) && !max.compareAndSet(prev, value)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Number of buckets, one more than bounds.
+     */
+    int getBucketCount() {
+        return buckets.length();
+    }
+
+    /**
+     * Upper bound of the bucket. The last bucket has none.
+     *
+     * @param i The index of the bucket.
+     */
+    long getBound (int i) {
+        return bounds[i];
+    }
+
+    /**
+     * Number of values within the bucket.
+     *
+     * @param i The index of the bucket.
+     */
+    long getBucket (int i) {
+        return buckets.get(i);
+    }
+
+    /**
+     * Number of values.
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Sum of the values.
+     */
+    long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Highest value.
+     */
+    long getMax() {
+        return max.get();
+    }
+
+}
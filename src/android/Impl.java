@@ -19,26 +19,27 @@
 
 package de.appplant.cordova.emailcomposer;
 
-import android.accounts.Account;
-import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.net.Uri;
+import android.os.Parcel;
 import android.os.Parcelable;
-import android.text.Html;
+import android.text.TextUtils;
 import android.util.Log;
-import android.util.Patterns;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static android.content.Intent.ACTION_SENDTO;
 import static android.content.Intent.EXTRA_INITIAL_INTENTS;
@@ -47,42 +48,148 @@ import static android.content.Intent.FLAG_ACTIVITY_NEW_TASK;
 import static android.content.Intent.FLAG_ACTIVITY_PREVIOUS_IS_TOP;
 import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
 
-@SuppressWarnings("Convert2Diamond")
+@SuppressWarnings({"Convert2Diamond", "Convert2Lambda"})
 class Impl {
 
     // The default mailto: scheme.
     private static final String MAILTO_SCHEME = "mailto:";
 
+    // Clone the draft per client if the chooser stays small enough.
+    private static final String CHOOSER_AUTO = "auto";
+
+    // Use the email intent as selector instead of cloning the draft.
+    private static final String CHOOSER_SELECTOR = "selector";
+
+    // Max parcel size of the chooser in bytes for the auto mode.
+    private static final int MAX_CHOOSER_SIZE = 256 * 1024;
+
+    // Max parcel size of the final intent in bytes.
+    private static final int MAX_INTENT_SIZE = 512 * 1024;
+
+    // Default text which replaces an attached body.
+    private static final String BODY_STUB = "Please find the message attached.";
+
     // The application context.
     private final Context ctx;
 
+    // Stops building the draft once the request got cancelled.
+    private final Cancellation token;
+
+    // The lane to resolve the attachments on or null.
+    private final Lane lane;
+
+    // Tracks the estimated heap use of the draft.
+    private MemoryBudget budget = new MemoryBudget(0);
+
+    // Resolves the attachments of the draft.
+    private AssetUtil assets;
+
     /**
      * Initializes the class.
      *
      * @param ctx The application context.
      */
     Impl (Context ctx) {
-        this.ctx = ctx;
+        this(ctx, new Cancellation(0), null);
     }
 
     /**
-     * The intent with the containing email properties.
+     * Initializes the class.
+     *
+     * @param ctx         The application context.
+     * @param token       The cancellation token of the request.
+     * @param lane  The lane to resolve the attachments on or null to
+     *              resolve them on the calling thread.
+     */
+    Impl (Context ctx, Cancellation token, Lane lane) {
+        this.ctx   = ctx;
+        this.token = token;
+        this.lane  = lane;
+    }
+
+    /**
+     * The intent with the containing email properties. Refuses drafts
+     * which would exceed the size an intent may have. The attachments are
+     * released if the request got cancelled or timed out meanwhile.
      *
      * @param params    The email properties like subject or body.
      * @return          The resulting intent.
      */
     Intent getDraft (JSONObject params) {
-        Intent draft  = getFilledEmailIntent(params);
+        long start = Stats.start();
+        Intent draft;
+
+        budget = MemoryBudget.of(params);
+
+        try {
+            draft = getChooser(getFilledEmailIntent(params), params);
+            token.check();
+        } catch (ComposerException e) {
+            release();
+            throw e;
+        } finally {
+            Stats.peak("memoryPeak", budget.getPeak());
+        }
+
+        int size = getParcelSize(draft);
+
+        Stats.size("intent", size);
+        Stats.stop("getDraft", start);
+
+        if (size > MAX_INTENT_SIZE) {
+            release();
+            throw new ComposerException(ComposerException.DRAFT_TOO_LARGE,
+                    "The draft takes " + size + " bytes, the limit is "
+                    + MAX_INTENT_SIZE + " bytes");
+        }
+
+        return draft;
+    }
+
+    /**
+     * The intent with the containing email properties wrapped into a
+     * chooser, unless the app to use is known.
+     *
+     * @param draft     The intent with the email properties.
+     * @param params    The email properties like subject or body.
+     * @return          The resulting intent.
+     */
+    private Intent getChooser (Intent draft, JSONObject params) {
+        boolean traced = Tracing.begin("Impl.getChooser");
+
+        try {
+            return getChooserFor(draft, params);
+        } finally {
+            Tracing.end(traced);
+        }
+    }
+
+    /**
+     * Wraps the draft into a chooser, unless the app to use is known.
+     *
+     * @param draft     The intent with the email properties.
+     * @param params    The email properties like subject or body.
+     * @return          The resulting intent.
+     */
+    private Intent getChooserFor (Intent draft, JSONObject params) {
         String app    = params.optString("app", MAILTO_SCHEME);
         String header = params.optString("chooserHeader", "Open with");
+        String mode   = params.optString("chooserMode", CHOOSER_AUTO);
 
         if (!app.equals(MAILTO_SCHEME) && isAppInstalled(app)) {
             return draft.setPackage(app);
         }
 
+        List<String> clientIds = getEmailClientIds();
+
+        if (mode.equals(CHOOSER_SELECTOR) || (mode.equals(CHOOSER_AUTO)
+                && getParcelSize(draft) * (clientIds.size() + 1) > MAX_CHOOSER_SIZE)) {
+            return getSelectorChooser(draft, header);
+        }
+
         List<Intent> targets = new ArrayList<>();
 
-        for (String clientId : getEmailClientIds()) {
+        for (String clientId : clientIds) {
             Intent target = (Intent) draft.clone();
             targets.add(target.setPackage(clientId));
         }
@@ -91,6 +198,23 @@ class Impl {
                 .putExtra(EXTRA_INITIAL_INTENTS, targets.toArray(new Parcelable[0]));
     }
 
+    /**
+     * A chooser which carries the draft only once. The email intent is
+     * set as selector, so that the chooser lists email clients only, no
+     * matter how many of them are installed.
+     *
+     * @param draft     The intent to send.
+     * @param header    The title of the chooser.
+     * @return          The resulting intent.
+     */
+    private static Intent getSelectorChooser (Intent draft, String header) {
+        if (!ACTION_SENDTO.equals(draft.getAction())) {
+            draft.setSelector(new Intent(ACTION_SENDTO, Uri.parse(MAILTO_SCHEME)));
+        }
+
+        return Intent.createChooser(draft, header);
+    }
+
     /**
      * The intent with the containing email properties.
      *
@@ -98,13 +222,30 @@ class Impl {
      * @return          The resulting intent.
      */
     private Intent getFilledEmailIntent (JSONObject params) {
-        Intent draft = getEmailIntent();
+        boolean traced = Tracing.begin("Impl.getFilledEmailIntent");
+
+        try {
+            return fillEmailIntent(params);
+        } finally {
+            Tracing.end(traced);
+        }
+    }
+
+    /**
+     * Fills a new email intent with the email properties.
+     *
+     * @param params    The email properties like subject or body.
+     * @return          The resulting intent.
+     */
+    private Intent fillEmailIntent (JSONObject params) {
+        Intent draft        = getEmailIntent();
+        ArrayList<Uri> uris = new ArrayList<Uri>();
 
         if (params.has("subject"))
             setSubject(params, draft);
 
         if (params.has("body"))
-            setBody(params, draft);
+            setBody(params, draft, uris);
 
         if (params.has("to"))
             setRecipients(params, draft);
@@ -116,7 +257,9 @@ class Impl {
             setBccRecipients(params, draft);
 
         if (params.has("attachments"))
-            setAttachments(params, draft);
+            setAttachments(params, uris);
+
+        setStreams(draft, uris);
 
         return draft;
     }
@@ -133,17 +276,78 @@ class Impl {
     }
 
     /**
-     * Setter for the body.
+     * Setter for the body. HTML bodies are passed as styled text and as
+     * HTML. A body which exceeds the optional maxBodySize gets attached as
+     * a file and replaced by the bodyStub text. A body which is too large to be
+     * processed within the memory budget gets attached as it is.
      *
      * @param params    The email properties like subject or body.
      * @param draft     The intent to send.
+     * @param uris      The attachments of the draft.
      */
-    private void setBody (JSONObject params, Intent draft) {
-        String body       = fixLineBreaks(params.optString("body"));
-        boolean isHTML    = params.optBoolean("isHtml");
-        CharSequence text = isHTML ? Html.fromHtml(body) : body;
+    private void setBody (JSONObject params, Intent draft, List<Uri> uris) {
+        long start     = Stats.start();
+        String raw     = params.optString("body");
+        boolean isHtml = params.optBoolean("isHtml");
+        long estimate  = Body.estimateSize(raw, isHtml);
+
+        if (!budget.tryReserve(estimate)) {
+            if (!attachBody(params, draft, uris, raw, isHtml))
+                throw budget.exceeded(estimate, "body");
+
+            Stats.stop("setBody", start);
+            return;
+        }
+
+        Body body         = Body.parse(raw, isHtml);
+        CharSequence text = body.getText();
+        int maxSize       = params.optInt("maxBodySize");
+        int size          = getParcelSize(text);
+
+        if (body.isHtml()) {
+            size += getParcelSize(body.getSource());
+        }
+
+        budget.release(estimate - body.getSize());
+
+        if (maxSize > 0 && size > maxSize
+                && attachBody(params, draft, uris, body.getSource(), body.isHtml())) {
+            budget.release(body.getSize());
+            Stats.stop("setBody", start);
+            return;
+        }
+
+        if (body.isHtml()) {
+            draft.putExtra(Intent.EXTRA_HTML_TEXT, body.getSource());
+        }
 
         draft.putExtra(Intent.EXTRA_TEXT, text);
+        Stats.stop("setBody", start);
+    }
+
+    /**
+     * Attaches the body as a file and replaces it by the bodyStub text.
+     *
+     * @param params    The email properties like subject or body.
+     * @param draft     The intent to send.
+     * @param uris      The attachments of the draft.
+     * @param source    The body to attach.
+     * @param isHtml    If the body is HTML.
+     * @return          false if the body could not be attached.
+     */
+    private boolean attachBody (JSONObject params, Intent draft, List<Uri> uris,
+                                String source, boolean isHtml) {
+        String name = isHtml ? "message.html" : "message.txt";
+        Uri uri     = getAssets().getUriForText(name, source);
+
+        if (uri == Uri.EMPTY)
+            return false;
+
+        uris.add(uri);
+        draft.putExtra(Intent.EXTRA_TEXT, params.optString("bodyStub", BODY_STUB));
+        Stats.count("attachedBodies");
+
+        return true;
     }
 
     /**
@@ -201,18 +405,23 @@ class Impl {
      * Setter for the attachments.
      *
      * @param params    The email properties like subject or body.
-     * @param draft     The intent to send.
+     * @param uris      The attachments of the draft.
      */
-    private void setAttachments (JSONObject params, Intent draft) {
+    private void setAttachments (JSONObject params, List<Uri> uris) {
+        long start            = Stats.start();
         JSONArray attachments = params.optJSONArray("attachments");
-        ArrayList<Uri> uris   = new ArrayList<Uri>();
-        AssetUtil assets      = new AssetUtil(ctx);
 
-        for (int i = 0; i < attachments.length(); i++) {
-            Uri uri = assets.parse(attachments.optString(i));
-            if (uri != null && uri != Uri.EMPTY) uris.add(uri);
-        }
+        uris.addAll(parseAttachments(attachments));
+        Stats.stop("setAttachments", start);
+    }
 
+    /**
+     * Attaches the files to the draft.
+     *
+     * @param draft     The intent to send.
+     * @param uris      The attachments of the draft.
+     */
+    private static void setStreams (Intent draft, ArrayList<Uri> uris) {
         if (uris.isEmpty())
             return;
 
@@ -229,58 +438,153 @@ class Impl {
     }
 
     /**
-     * If email apps are available.
+     * Resolves the attachments concurrently on the attachment lane. The
+     * order of the URIs matches the order of the attachments. Attachments
+     * which do not fit into the queue of the lane are resolved on the
+     * calling thread. Pending attachments are cancelled once the deadline
+     * of the request has passed.
      *
-     * @return true if available, otherwise false
+     * @param paths The attachment paths.
+     * @return      The URIs of all resolvable attachments.
      */
-    @SuppressLint("MissingPermission")
-    boolean isEmailAccountConfigured() {
-        AccountManager am  = AccountManager.get(ctx);
+    private ArrayList<Uri> parseAttachments (JSONArray paths) {
+        final AssetUtil assets       = getAssets();
+        ArrayList<Uri> uris          = new ArrayList<Uri>();
+        List<FutureTask<Uri>> tasks  = new ArrayList<FutureTask<Uri>>();
+        List<FutureTask<Uri>> inline = new ArrayList<FutureTask<Uri>>();
+
+        for (int i = 0; i < paths.length(); i++) {
+            final String path = paths.optString(i);
+
+            tasks.add(new FutureTask<Uri>(new Callable<Uri>() {
+                public Uri call() {
+                    return assets.parse(path);
+                }
+            }));
+        }
 
         try {
-            Pattern emailPattern = Patterns.EMAIL_ADDRESS;
+            for (FutureTask<Uri> task : tasks) {
+                if (tasks.size() == 1 || !fork(task)) inline.add(task);
+            }
 
-            for (Account account : am.getAccounts()) {
-                if (emailPattern.matcher(account.name).matches()) {
-                    return true;
-                }
+            for (FutureTask<Uri> task : inline) {
+                task.run();
+            }
+
+            for (Future<Uri> task : tasks) {
+                addUri(uris, getUri(task));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            token.cancel();
+            token.check();
+        } catch (ComposerException e) {
+            throw e;
         } catch (Exception e) {
-            Log.w(LOG_TAG, "Missing GET_ACCOUNTS permission.");
+            Log.e(LOG_TAG, "Failed to resolve attachment");
+            e.printStackTrace();
+        } finally {
+            for (FutureTask<Uri> task : tasks) {
+                task.cancel(true);
+            }
         }
 
-        return false;
+        return uris;
     }
 
     /**
-     * Get the info for all available email client activities.
+     * Runs the task on the attachment lane if there is room for it.
+     *
+     * @param task The task to run.
+     * @return     false if the task is left for the caller to run.
      */
-    private List<ActivityInfo> getEmailClients() {
-        Intent           intent = getEmailIntent();
-        PackageManager       pm = ctx.getPackageManager();
-        List<ResolveInfo>  apps = pm.queryIntentActivities(intent, 0);
-        List<ActivityInfo> list = new ArrayList<>();
-
-        for (ResolveInfo app : apps) {
-            if (app.activityInfo.isEnabled()) {
-                list.add(app.activityInfo);
-            }
+    private boolean fork (FutureTask<Uri> task) {
+        if (lane == null)
+            return false;
+
+        try {
+            lane.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
         }
+    }
 
-        return list;
+    /**
+     * The URI of the resolved attachment. Rethrows if the attachment got
+     * cancelled, so that the draft is not opened without it.
+     *
+     * @param task The task which resolved the attachment.
+     * @return     The URI of the attachment.
+     */
+    private Uri getUri (Future<Uri> task) throws InterruptedException {
+        try {
+            return task.get(token.getRemaining(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            token.check();
+            throw new ComposerException(Cancellation.TIMEOUT, "The attachment has timed out");
+        } catch (CancellationException e) {
+            token.check();
+            throw new ComposerException(Cancellation.CANCELLED, "The attachment has been cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ComposerException)
+                throw (ComposerException) e.getCause();
+
+            Log.e(LOG_TAG, "Failed to resolve attachment");
+            e.getCause().printStackTrace();
+            return Uri.EMPTY;
+        }
     }
 
     /**
-     * Get package IDs for all available email clients.
+     * The asset utils to resolve the attachments of the draft.
      */
-    List<String> getEmailClientIds() {
-        List<String> ids = new ArrayList<>();
+    private synchronized AssetUtil getAssets() {
+        if (assets == null) {
+            assets = new AssetUtil(ctx, token, budget);
+        }
+
+        return assets;
+    }
 
-        for (ActivityInfo app : getEmailClients()) {
-            ids.add(app.packageName);
+    /**
+     * Releases the attachments of the draft once the draft is done.
+     */
+    synchronized void release() {
+        if (assets != null) {
+            assets.release();
         }
+    }
+
+    /**
+     * Adds the URI unless its empty.
+     */
+    private static void addUri (List<Uri> uris, Uri uri) {
+        if (uri != null && uri != Uri.EMPTY) uris.add(uri);
+    }
+
+    /**
+     * If email apps are available.
+     *
+     * @return true if available, otherwise false
+     */
+    boolean isEmailAccountConfigured() {
+        return AccountIndex.get(ctx).isConfigured();
+    }
+
+    /**
+     * The number and types of the email accounts.
+     */
+    AccountIndex.Summary getEmailAccounts() {
+        return AccountIndex.get(ctx).getSummary();
+    }
 
-        return ids;
+    /**
+     * Get package IDs for all available email clients.
+     */
+    List<String> getEmailClientIds() {
+        return ClientIndex.get(ctx).getEmailClientIds();
     }
 
     /**
@@ -293,20 +597,10 @@ class Impl {
     boolean isAppInstalled (String id) {
 
         if (id.equalsIgnoreCase(MAILTO_SCHEME)) {
-            Intent intent     = getEmailIntent();
-            PackageManager pm = ctx.getPackageManager();
-            int apps          = pm.queryIntentActivities(intent, 0).size();
-
-            return (apps > 0);
+            return !getEmailClientIds().isEmpty();
         }
 
-        try {
-            return ctx.getPackageManager()
-                    .getPackageInfo(id, 0)
-                    .applicationInfo.enabled;
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
-        }
+        return ClientIndex.get(ctx).isAppInstalled(id);
     }
 
     /**
@@ -314,7 +608,7 @@ class Impl {
      *
      * @return intent
      */
-    private static Intent getEmailIntent() {
+    static Intent getEmailIntent() {
         Intent intent = new Intent(ACTION_SENDTO, Uri.parse(MAILTO_SCHEME));
 
         intent.addFlags(FLAG_ACTIVITY_NEW_TASK | FLAG_ACTIVITY_CLEAR_TASK);
@@ -324,14 +618,37 @@ class Impl {
     }
 
     /**
-     * Fix line breaks within the provided text.
+     * The size of the intent once written into a parcel.
      *
-     * @param text The text where to fix the line breaks.
+     * @param intent The intent to measure.
+     * @return       The size in bytes.
+     */
+    static int getParcelSize (Intent intent) {
+        Parcel parcel = Parcel.obtain();
+
+        try {
+            intent.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * The size of the text once written into a parcel.
      *
-     * @return The fixed text.
+     * @param text The text to measure.
+     * @return     The size in bytes.
      */
-    private static String fixLineBreaks (String text) {
-        return text.replaceAll("\r\n", "\n");
+    private static int getParcelSize (CharSequence text) {
+        Parcel parcel = Parcel.obtain();
+
+        try {
+            TextUtils.writeToParcel(text, parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
     }
 
 }
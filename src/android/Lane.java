@@ -0,0 +1,205 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool which keeps track of its queue depth and of the time
+ * its tasks spend waiting in the queue. Lanes sets the thread priority
+ * and does the logging.
+ */
+@SuppressWarnings("Convert2Diamond")
+class Lane extends ThreadPoolExecutor {
+
+    // The name of the lane.
+    private final String name;
+
+    // The highest queue depth seen so far.
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    // Number of tasks which were run.
+    private final AtomicLong tasks = new AtomicLong();
+
+    // Number of tasks which were rejected.
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Total time in ns the tasks have waited in the queue.
+    private final AtomicLong totalWait = new AtomicLong();
+
+    // Longest time in ns a task has waited in the queue.
+    private final AtomicLong maxWait = new AtomicLong();
+
+    /**
+     * Initializes the lane.
+     *
+     * @param name     The name of the lane.
+     * @param threads  The number of threads.
+     * @param capacity The max number of queued tasks.
+     * @param factory  Creates the threads of the lane.
+     */
+    Lane (String name, int threads, int capacity, ThreadFactory factory) {
+        super(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), factory);
+
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the task and remembers when it got queued.
+     *
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    @Override
+    public void execute (Runnable task) {
+        try {
+            super.execute(new Queued(task));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            onBusy();
+            throw new RejectedExecutionException("The " + name + " lane is busy");
+        }
+
+        int depth = getQueue().size();
+        int max;
+
+        while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth)) {
+            // Retry
+        }
+    }
+
+    /**
+     * The name of the lane.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * The highest queue depth seen so far.
+     */
+    int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Number of tasks which were run.
+     */
+    long getTasks() {
+        return tasks.get();
+    }
+
+    /**
+     * Number of tasks which were rejected.
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Total time in ns the tasks have waited in the queue.
+     */
+    long getTotalWait() {
+        return totalWait.get();
+    }
+
+    /**
+     * Longest time in ns a task has waited in the queue.
+     */
+    long getMaxWait() {
+        return maxWait.get();
+    }
+
+    /**
+     * Resets the metrics of the lane.
+     */
+    void resetMetrics() {
+        maxDepth.set(0);
+        tasks.set(0);
+        rejected.set(0);
+        totalWait.set(0);
+        maxWait.set(0);
+    }
+
+    /**
+     * Called when the lane rejects a task.
+     */
+    void onBusy() {
+        // Nothing to do
+    }
+
+    /**
+     * Called before a task runs with the time it has waited.
+     *
+     * @param wait The time in ns the task has waited in the queue.
+     */
+    void onWait (long wait) {
+        // Nothing to do
+    }
+
+    /**
+     * Accounts for the time the task has waited in the queue.
+     */
+    private void onStart (long queued) {
+        long wait = System.nanoTime() - queued;
+        long max;
+
+        tasks.incrementAndGet();
+        totalWait.addAndGet(wait);
+
+        while (wait > (max = maxWait.get()) && !maxWait.compareAndSet(max, wait)) {
+            // Retry
+        }
+
+        onWait(wait);
+    }
+
+    /**
+     * A task together with the time it got queued.
+     */
+    private final class Queued implements Runnable {
+
+        // The task to run.
+        private final Runnable task;
+
+        // The time in ns when the task got queued.
+        private final long queued = System.nanoTime();
+
+        /**
+         * Initializes the wrapper.
+         */
+        Queued (Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            onStart(queued);
+            task.run();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
+
+/**
+ * The executors of the plugin. Cheap queries like hasClient run on their
+ * own lane, so that they do not queue up behind attachment copies. Drafts
+ * the user waits for are built on the open lane at default priority,
+ * while work ahead of time like prepare and cleanup runs on the I/O lane
+ * at background priority. The attachments of a draft get resolved in
+ * parallel on the attachment lane. All lanes are bounded and reject work
+ * once their queue is full.
+ */
+final class Lanes {
+
+    // The error code for work rejected by a full lane.
+    static final String BUSY = "BUSY";
+
+    // Waits longer than this many ms get logged.
+    private static final long SLOW_WAIT = 100;
+
+    // The lane for queries to the package and account managers.
+    private final Lane query = lane("query", 2, 32, Process.THREAD_PRIORITY_DEFAULT);
+
+    // The lane to build the drafts the user is waiting for.
+    private final Lane open = lane("open", 2, 16, Process.THREAD_PRIORITY_DEFAULT);
+
+    // The lane to prepare drafts, write uploads and trim the cache.
+    private final Lane io = lane("io", 2, 16, Process.THREAD_PRIORITY_BACKGROUND);
+
+    // The lane to resolve the attachments of the drafts in parallel.
+    private final Lane attachments = lane("attachments",
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), 32,
+            Process.THREAD_PRIORITY_DEFAULT);
+
+    /**
+     * The lane for queries to the package and account managers.
+     */
+    Lane getQueryLane() {
+        return query;
+    }
+
+    /**
+     * The lane to build the drafts the user is waiting for.
+     */
+    Lane getOpenLane() {
+        return open;
+    }
+
+    /**
+     * The lane to prepare drafts, write uploads and trim the cache.
+     */
+    Lane getIoLane() {
+        return io;
+    }
+
+    /**
+     * The lane to resolve the attachments of the drafts in parallel.
+     */
+    Lane getAttachmentLane() {
+        return attachments;
+    }
+
+    /**
+     * The metrics of all lanes.
+     */
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+
+        try {
+            json.put("query", toJSON(query));
+            json.put("open", toJSON(open));
+            json.put("io", toJSON(io));
+            json.put("attachments", toJSON(attachments));
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to write lane metrics");
+        }
+
+        return json;
+    }
+
+    /**
+     * Resets the metrics of all lanes.
+     */
+    void resetMetrics() {
+        query.resetMetrics();
+        open.resetMetrics();
+        io.resetMetrics();
+        attachments.resetMetrics();
+    }
+
+    /**
+     * Stops all lanes once the queued work is done.
+     */
+    void shutdown() {
+        query.shutdown();
+        open.shutdown();
+        io.shutdown();
+        attachments.shutdown();
+    }
+
+    /**
+     * The error to send back when a lane rejects work.
+     *
+     * @param e The rejection of the lane.
+     */
+    static ComposerException busy (RejectedExecutionException e) {
+        return new ComposerException(BUSY, e.getMessage());
+    }
+
+    /**
+     * A lane whose threads run at the given Android priority and which
+     * logs when it is busy or its tasks wait for long.
+     *
+     * @param name     The name of the lane.
+     * @param threads  The number of threads.
+     * @param capacity The max number of queued tasks.
+     * @param priority The Android thread priority.
+     */
+    private static Lane lane (final String name, int threads, int capacity, final int priority) {
+        ThreadFactory factory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread (final Runnable task) {
+                Runnable prioritized = new Runnable() {
+                    public void run() {
+                        Process.setThreadPriority(priority);
+                        task.run();
+                    }
+                };
+
+                return new Thread(prioritized,
+                        LOG_TAG + "-" + name + "-" + count.incrementAndGet());
+            }
+        };
+
+        return new Lane(name, threads, capacity, factory) {
+            @Override
+            void onBusy() {
+                Log.w(LOG_TAG, "The " + name + " lane is busy");
+            }
+
+            @Override
+            void onWait (long wait) {
+                if (wait / 1000000 > SLOW_WAIT) {
+                    Log.d(LOG_TAG, "Task waited " + wait / 1000000 + " ms on the " + name + " lane");
+                }
+            }
+        };
+    }
+
+    /**
+     * The metrics of the lane.
+     */
+    private static JSONObject toJSON (Lane lane) throws JSONException {
+        long count      = lane.getTasks();
+        JSONObject json = new JSONObject();
+
+        json.put("depth", lane.getQueue().size());
+        json.put("maxDepth", lane.getMaxDepth());
+        json.put("active", lane.getActiveCount());
+        json.put("tasks", count);
+        json.put("rejected", lane.getRejected());
+        json.put("avgWait", count > 0 ? lane.getTotalWait() / count / 1000000 : 0);
+        json.put("maxWait", lane.getMaxWait() / 1000000);
+
+        return json;
+    }
+
+}
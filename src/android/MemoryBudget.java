@@ -0,0 +1,130 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import org.json.JSONObject;
+
+/**
+ * Estimated heap use of a single draft. The stages which allocate in
+ * proportion to the draft reserve their estimate up front, so that they
+ * can fall back to streaming or spilling, or fail, before they allocate.
+ * The budget remembers the highest reservation it has seen.
+ */
+final class MemoryBudget {
+
+    // The error code for a draft which does not fit into the budget.
+    static final String MEMORY_BUDGET = "MEMORY_BUDGET";
+
+    // The limit in bytes for drafts which do not set one, 0 for none.
+    private static volatile long defaultLimit;
+
+    // The limit in bytes or 0 for none.
+    private final long limit;
+
+    // The bytes currently reserved.
+    private long used;
+
+    // The highest number of bytes reserved at once.
+    private long peak;
+
+    /**
+     * Initializes the budget.
+     *
+     * @param limit The limit in bytes or 0 for none.
+     */
+    MemoryBudget (long limit) {
+        this.limit = Math.max(0, limit);
+    }
+
+    /**
+     * The budget of a draft as given by its memoryBudget property in
+     * bytes, otherwise the default limit.
+     *
+     * @param params The email properties like subject or body.
+     */
+    static MemoryBudget of (JSONObject params) {
+        return new MemoryBudget(params.optLong("memoryBudget", defaultLimit));
+    }
+
+    /**
+     * Sets the limit for drafts which do not set one.
+     *
+     * @param limit The limit in bytes or 0 for none.
+     */
+    static void setDefaultLimit (long limit) {
+        defaultLimit = Math.max(0, limit);
+    }
+
+    /**
+     * Reserves the bytes if they fit into the budget.
+     *
+     * @param bytes The estimated allocation.
+     * @return      true if the bytes have been reserved.
+     */
+    synchronized boolean tryReserve (long bytes) {
+        if (limit > 0 && used + bytes > limit)
+            return false;
+
+        used += bytes;
+        peak  = Math.max(peak, used);
+
+        return true;
+    }
+
+    /**
+     * Reserves the bytes or fails if they do not fit into the budget.
+     *
+     * @param bytes The estimated allocation.
+     * @param what  What needs the bytes, for the error message.
+     */
+    void reserve (long bytes, String what) {
+        if (!tryReserve(bytes))
+            throw exceeded(bytes, what);
+    }
+
+    /**
+     * Gives back the reserved bytes.
+     *
+     * @param bytes The bytes reserved before.
+     */
+    synchronized void release (long bytes) {
+        used = Math.max(0, used - bytes);
+    }
+
+    /**
+     * The highest number of bytes reserved at once.
+     */
+    synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * The error for an allocation which does not fit into the budget.
+     *
+     * @param bytes The estimated allocation.
+     * @param what  What needs the bytes.
+     */
+    synchronized ComposerException exceeded (long bytes, String what) {
+        return new ComposerException(MEMORY_BUDGET, "The " + what + " needs about "
+                + bytes + " bytes, " + (limit - used) + " of the memory budget of "
+                + limit + " bytes are left");
+    }
+
+}
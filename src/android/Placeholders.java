@@ -0,0 +1,91 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Texts with placeholders like {{name}}. A text gets split once into
+ * literal and placeholder segments, so that filling it needs no parsing.
+ */
+@SuppressWarnings("Convert2Diamond")
+final class Placeholders {
+
+    /**
+     * The values to fill the placeholders with.
+     */
+    interface Variables {
+
+        /**
+         * The value of the variable or "" if unknown.
+         *
+         * @param name The name of the variable.
+         */
+        String get (String name);
+    }
+
+    /**
+     * Static only.
+     */
+    private Placeholders() {}
+
+    /**
+     * Splits the text into literals and placeholders.
+     *
+     * @param text The text with placeholders like {{name}}.
+     * @return     The segments of the text. Even indexes are literals, odd
+     *             indexes are variable names.
+     */
+    static List<String> compile (String text) {
+        List<String> segments = new ArrayList<String>();
+        int pos = 0, start, end;
+
+        while ((start = text.indexOf("{{", pos)) != -1
+                && (end = text.indexOf("}}", start + 2)) != -1) {
+            segments.add(text.substring(pos, start));
+            segments.add(text.substring(start + 2, end).trim());
+            pos = end + 2;
+        }
+
+        segments.add(text.substring(pos));
+
+        return segments;
+    }
+
+    /**
+     * Joins the segments with the placeholders filled by the variables.
+     *
+     * @param segments The segments returned by compile.
+     * @param vars     The values of the variables.
+     * @return         The filled text.
+     */
+    static String fill (List<String> segments, Variables vars) {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            text.append(i % 2 == 0 ? segment : vars.get(segment));
+        }
+
+        return text.toString();
+    }
+
+}
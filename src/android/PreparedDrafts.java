@@ -0,0 +1,272 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Drafts which get built in the background ahead of open. Each draft is
+ * referenced by a handle, which expires after a while or gets released
+ * explicitly. Opening a draft consumes its handle.
+ */
+@SuppressWarnings({"Convert2Diamond", "Convert2Lambda"})
+final class PreparedDrafts {
+
+    // The error code for an unknown or expired handle.
+    static final String UNKNOWN_DRAFT = "UNKNOWN_DRAFT";
+
+    // The error code for a draft which could not be built.
+    static final String PREPARE_FAILED = "PREPARE_FAILED";
+
+    // Default time to live of a prepared draft in ms.
+    private static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    // The prepared drafts by their handle.
+    private final ConcurrentMap<String, Draft> drafts = new ConcurrentHashMap<String, Draft>();
+
+    // The pool to build the drafts on.
+    private final ExecutorService pool;
+
+    // The lane to resolve the attachments of the drafts on.
+    private final Lane attachments;
+
+    // Releases the drafts once they expire.
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Initializes the registry.
+     *
+     * @param pool        The pool to build the drafts on.
+     * @param attachments The lane to resolve the attachments on.
+     */
+    PreparedDrafts (ExecutorService pool, Lane attachments) {
+        this.pool        = pool;
+        this.attachments = attachments;
+    }
+
+    /**
+     * If the properties refer to a prepared draft.
+     *
+     * @param props The properties passed to open.
+     */
+    static boolean isPrepared (JSONObject props) {
+        return props.has("draft");
+    }
+
+    /**
+     * Starts to build the draft in the background. The build stops once
+     * the draft gets released or its timeout has passed.
+     *
+     * @param ctx    The application context.
+     * @param params The email properties like subject or body.
+     * @return       The handle of the draft.
+     *
+     * @throws RejectedExecutionException if the pool is busy.
+     */
+    String prepare (Context ctx, final JSONObject params) {
+        purge();
+
+        final Cancellation token = new Cancellation(params.optLong("timeout"));
+        final Impl impl          = new Impl(ctx, token, attachments);
+        long ttl                 = params.optLong("ttl", DEFAULT_TTL);
+        String handle            = UUID.randomUUID().toString();
+
+        Draft draft = new Draft(impl, token, new Callable<Intent>() {
+            public Intent call() {
+                token.attach();
+
+                try {
+                    token.check();
+                    return impl.getDraft(params);
+                } finally {
+                    token.detach();
+                }
+            }
+        }, System.currentTimeMillis() + ttl);
+
+        pool.execute(draft.intent);
+        drafts.put(handle, draft);
+
+        handler.postDelayed(new Runnable() {
+            public void run() {
+                purge();
+            }
+        }, ttl);
+
+        return handle;
+    }
+
+    /**
+     * Removes the draft from the registry to open it.
+     *
+     * @param props The properties passed to open.
+     * @return      The prepared draft.
+     */
+    Draft take (JSONObject props) {
+        String handle = props.optString("draft");
+
+        purge();
+
+        Draft draft = drafts.remove(handle);
+
+        if (draft == null)
+            throw new ComposerException(UNKNOWN_DRAFT, "Unknown or expired draft: " + handle);
+
+        return draft;
+    }
+
+    /**
+     * Releases the draft and its attachments.
+     *
+     * @param handle The handle of the draft.
+     */
+    void release (String handle) {
+        Draft draft = drafts.remove(handle);
+
+        if (draft != null) {
+            release(draft);
+        }
+    }
+
+    /**
+     * Releases all drafts and their attachments.
+     */
+    void releaseAll() {
+        handler.removeCallbacksAndMessages(null);
+
+        for (String handle : drafts.keySet()) {
+            release(handle);
+        }
+    }
+
+    /**
+     * Releases the drafts which have expired. A draft which got taken
+     * meanwhile is left alone.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, Draft> entry : drafts.entrySet()) {
+            Draft draft = entry.getValue();
+
+            if (draft.expires <= now && drafts.remove(entry.getKey(), draft)) {
+                release(draft);
+            }
+        }
+    }
+
+    /**
+     * Stops building the draft and releases its attachments once the build
+     * has finished. A build which has not started yet fails right away
+     * once it gets picked up.
+     */
+    private void release (Draft draft) {
+        draft.released = true;
+        draft.token.cancel();
+
+        if (draft.intent.isDone()) {
+            draft.impl.release();
+        }
+    }
+
+    /**
+     * A draft which is built or being built in the background.
+     */
+    static final class Draft {
+
+        // The impl which builds the draft.
+        private final Impl impl;
+
+        // Stops building the draft.
+        private final Cancellation token;
+
+        // The resulting intent.
+        private final FutureTask<Intent> intent;
+
+        // The time in ms when the draft expires.
+        private final long expires;
+
+        // If the attachments are to be released once the build has finished.
+        private volatile boolean released;
+
+        /**
+         * Initializes the draft.
+         */
+        private Draft (final Impl impl, Cancellation token,
+                       Callable<Intent> build, long expires) {
+            this.impl    = impl;
+            this.token   = token;
+            this.expires = expires;
+            this.intent  = new FutureTask<Intent>(build) {
+                @Override
+                protected void done() {
+                    if (released) impl.release();
+                }
+            };
+        }
+
+        /**
+         * The impl which holds the attachments of the draft.
+         */
+        Impl getImpl() {
+            return impl;
+        }
+
+        /**
+         * The intent of the draft. Builds it on the calling thread if no
+         * pool thread has picked it up yet, otherwise waits until it has
+         * been built.
+         */
+        Intent getIntent() {
+            intent.run();
+
+            try {
+                return intent.get();
+            } catch (CancellationException e) {
+                throw new ComposerException(Cancellation.CANCELLED, "The request has been cancelled");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ComposerException)
+                    throw (ComposerException) e.getCause();
+
+                throw new ComposerException(PREPARE_FAILED, String.valueOf(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ComposerException(Cancellation.CANCELLED, "The request has been cancelled");
+            }
+        }
+    }
+
+}
@@ -19,8 +19,325 @@
 
 package de.appplant.cordova.emailcomposer;
 
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
 import androidx.core.content.FileProvider;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
+
+/**
+ * Shares files of the provider paths like any FileProvider. In addition
+ * it serves www assets, raw resources and files of the internal app file
+ * system in place, without copying them into the cache dir first.
+ */
 public class Provider extends FileProvider {
-    // Nothing to do here
-}
\ No newline at end of file
+
+    // Path prefix for www assets like content://.../asset/www/img/logo.png
+    private static final String ASSET = "asset";
+
+    // Path prefix for resources like content://.../raw/2131165184/icon.png
+    private static final String RAW = "raw";
+
+    // Path prefix for internal files like content://.../app/databases/db.db3
+    private static final String APP = "app";
+
+    // The default columns returned by query().
+    private static final String[] COLUMNS = {
+            OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE
+    };
+
+    /**
+     * The URI for an asset within the APK.
+     *
+     * @param ctx     The application context.
+     * @param path    The path of the asset like www/img/logo.png
+     * @return        content://...
+     */
+    static Uri getUriForAsset (Context ctx, String path) {
+        return buildUri(ctx, ASSET, path);
+    }
+
+    /**
+     * The URI for a raw resource.
+     *
+     * @param ctx      The application context.
+     * @param resId    The resource ID.
+     * @param fileName The file name to present to the receiver.
+     * @return         content://...
+     */
+    static Uri getUriForResource (Context ctx, int resId, String fileName) {
+        return buildUri(ctx, RAW, resId + "/" + fileName);
+    }
+
+    /**
+     * The URI for a file within the internal app file system.
+     *
+     * @param ctx     The application context.
+     * @param path    The path relative to the data dir like databases/db.db3
+     * @return        content://...
+     */
+    static Uri getUriForAppFile (Context ctx, String path) {
+        return buildUri(ctx, APP, path);
+    }
+
+    /**
+     * The authority of the provider.
+     *
+     * @param ctx The application context.
+     */
+    static String getAuthority (Context ctx) {
+        return ctx.getPackageName() + ".emailcomposer.provider";
+    }
+
+    /**
+     * Builds the content URI with the given prefix and path.
+     */
+    private static Uri buildUri (Context ctx, String prefix, String path) {
+        Uri.Builder builder = new Uri.Builder()
+                .scheme("content")
+                .authority(getAuthority(ctx))
+                .appendPath(prefix);
+
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) builder.appendPath(segment);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Opens the internal file, or a pipe fed with the content of the
+     * asset or resource. The default openAssetFile and openTypedAssetFile
+     * end up here as well, so that openFileDescriptor and openInputStream
+     * never get a range of the APK.
+     *
+     * @param uri  The URI whose file is to be opened.
+     * @param mode Only "r" is supported for the in place content.
+     */
+    @Override
+    public ParcelFileDescriptor openFile (Uri uri, String mode)
+            throws FileNotFoundException {
+
+        String prefix = getPrefix(uri);
+
+        if (APP.equals(prefix)) {
+            checkReadOnly(mode);
+            return ParcelFileDescriptor.open(getAppFile(uri),
+                    ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        if (ASSET.equals(prefix) || RAW.equals(prefix)) {
+            checkReadOnly(mode);
+            return openPipeHelper(uri, getType(uri), null, openStream(uri),
+                    new StreamWriter());
+        }
+
+        return super.openFile(uri, mode);
+    }
+
+    /**
+     * Display name and size of the in place content.
+     */
+    @Override
+    public Cursor query (Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+
+        if (getPrefix(uri) == null)
+            return super.query(uri, projection, selection, selectionArgs, sortOrder);
+
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row        = new Object[projection.length];
+
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = uri.getLastPathSegment();
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                long size = getSize(uri);
+                row[i]    = size < 0 ? null : size;
+            }
+        }
+
+        cursor.addRow(row);
+
+        return cursor;
+    }
+
+    /**
+     * The MIME type derived from the file extension.
+     */
+    @Override
+    public String getType (Uri uri) {
+        if (getPrefix(uri) == null)
+            return super.getType(uri);
+
+        String name = uri.getLastPathSegment();
+        String ext  = MimeTypeMap.getFileExtensionFromUrl(name);
+        String mime = null;
+
+        if (ext != null) {
+            mime = MimeTypeMap.getSingleton()
+                    .getMimeTypeFromExtension(ext.toLowerCase());
+        }
+
+        return mime != null ? mime : "application/octet-stream";
+    }
+
+    /**
+     * The prefix if the URI points to in place content, otherwise null.
+     */
+    private static String getPrefix (Uri uri) {
+        List<String> segments = uri.getPathSegments();
+
+        if (segments.size() < 2)
+            return null;
+
+        String prefix = segments.get(0);
+
+        if (ASSET.equals(prefix) || RAW.equals(prefix) || APP.equals(prefix))
+            return prefix;
+
+        return null;
+    }
+
+    /**
+     * The path of the URI without its prefix.
+     */
+    private static String getPath (Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        StringBuilder path    = new StringBuilder();
+
+        for (String segment : segments.subList(1, segments.size())) {
+            if (path.length() > 0) path.append('/');
+            path.append(segment);
+        }
+
+        return path.toString();
+    }
+
+    /**
+     * The resource ID encoded into the URI.
+     */
+    private static int getResId (Uri uri) throws FileNotFoundException {
+        try {
+            return Integer.parseInt(uri.getPathSegments().get(1));
+        } catch (NumberFormatException e) {
+            throw new FileNotFoundException(uri.toString());
+        }
+    }
+
+    /**
+     * The internal file for the URI. Refuses paths that escape the data
+     * dir of the app.
+     */
+    private File getAppFile (Uri uri) throws FileNotFoundException {
+        File dataDir = getContext().getFilesDir().getParentFile();
+
+        try {
+            String root = dataDir.getCanonicalPath();
+            File file   = new File(root, getPath(uri)).getCanonicalFile();
+
+            if (!file.getPath().startsWith(root + File.separator) || !file.isFile())
+                throw new FileNotFoundException(uri.toString());
+
+            return file;
+        } catch (IOException e) {
+            throw new FileNotFoundException(uri.toString());
+        }
+    }
+
+    /**
+     * Opens the asset or resource as a descriptor into the APK. Fails for
+     * compressed content.
+     */
+    private AssetFileDescriptor openFd (Uri uri) throws IOException {
+        Context ctx = getContext();
+
+        if (RAW.equals(getPrefix(uri)))
+            return ctx.getResources().openRawResourceFd(getResId(uri));
+
+        return ctx.getAssets().openFd(getPath(uri));
+    }
+
+    /**
+     * Opens the asset or resource as a stream.
+     */
+    private InputStream openStream (Uri uri) throws FileNotFoundException {
+        Context ctx = getContext();
+
+        try {
+            if (RAW.equals(getPrefix(uri)))
+                return ctx.getResources().openRawResource(getResId(uri));
+
+            return ctx.getAssets().open(getPath(uri));
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FileNotFoundException(uri.toString());
+        }
+    }
+
+    /**
+     * The size of the in place content or -1 if unknown.
+     */
+    private long getSize (Uri uri) {
+        try {
+            if (APP.equals(getPrefix(uri)))
+                return getAppFile(uri).length();
+
+            AssetFileDescriptor fd = openFd(uri);
+            long size              = fd.getLength();
+
+            fd.close();
+
+            return size;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Refuses any other mode than read.
+     */
+    private static void checkReadOnly (String mode) throws FileNotFoundException {
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("Read-only content: " + mode);
+    }
+
+    /**
+     * Feeds the pipe with the content of an asset or resource.
+     */
+    private static final class StreamWriter implements PipeDataWriter<InputStream> {
+
+        @Override
+        public void writeDataToPipe (ParcelFileDescriptor output, Uri uri,
+                                     String mimeType, Bundle opts, InputStream in) {
+            try {
+                AssetUtil.copyStream(in,
+                        new FileOutputStream(output.getFileDescriptor()), getPrefix(uri));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to pipe " + uri);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The callbacks of the requests waiting for an activity or permission
+ * result, by their request code. Android only keeps the lower 16 bits of
+ * a request code, so the codes wrap around. A code still in use by a
+ * request, for example one whose draft is still shown, gets skipped.
+ *
+ * @param <C> The type of the callbacks.
+ */
+@SuppressWarnings("Convert2Diamond")
+final class Requests<C> {
+
+    // The number of request codes Android can pass back.
+    static final int CODES = 0x10000;
+
+    // The callbacks by their request code.
+    private final ConcurrentMap<Integer, C> pending =
+            new ConcurrentHashMap<Integer, C>();
+
+    // The last used request code.
+    private final AtomicInteger last = new AtomicInteger();
+
+    /**
+     * Keeps the callback under a request code which is not in use.
+     *
+     * @param callback The callback of the request.
+     *
+     * @return The request code.
+     *
+     * @throws IllegalStateException if all codes are in use.
+     */
+    int add (C callback) {
+        for (int i = 0; i < CODES; i++) {
+            int code = last.incrementAndGet() & (CODES - 1);
+
+            if (pending.putIfAbsent(code, callback) == null)
+                return code;
+        }
+
+        throw new IllegalStateException("No free request code");
+    }
+
+    /**
+     * Forgets about the request.
+     *
+     * @param code The request code.
+     *
+     * @return The callback of the request or null if there is none.
+     */
+    C remove (int code) {
+        return pending.remove(code);
+    }
+
+    /**
+     * The number of requests waiting for their result.
+     */
+    int size() {
+        return pending.size();
+    }
+
+}
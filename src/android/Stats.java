@@ -0,0 +1,310 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
+
+/**
+ * Process-wide timers and counters of the hot paths. Recording costs a
+ * map lookup and a few atomic adds, so that the stats are always on.
+ */
+final class Stats {
+
+    // Upper bounds of the latency buckets in microseconds.
+    private static final long[] LATENCY_BOUNDS = {
+            100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000
+    };
+
+    // Upper bounds of the size buckets in bytes.
+    private static final long[] SIZE_BOUNDS = {
+            1024, 4096, 16384, 65536, 131072, 262144, 524288, 1048576
+    };
+
+    // Upper bounds of the memory buckets in bytes.
+    private static final long[] MEMORY_BOUNDS = {
+            262144, 1048576, 4194304, 16777216, 67108864, 268435456
+    };
+
+    // Max number of recent values kept per name.
+    private static final int MAX_RECENT = 32;
+
+    // Latencies by the name of the timed stage.
+    private static final ConcurrentMap<String, Histogram> TIMERS =
+            new ConcurrentHashMap<String, Histogram>();
+
+    // Sizes by the name of the measured value.
+    private static final ConcurrentMap<String, Histogram> SIZES =
+            new ConcurrentHashMap<String, Histogram>();
+
+    // Counters by their name.
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    // Bytes copied by the scheme of their source.
+    private static final ConcurrentMap<String, AtomicLong> BYTES =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    // The last values of each request by their name.
+    private static final ConcurrentMap<String, Recent> RECENT =
+            new ConcurrentHashMap<String, Recent>();
+
+    /**
+     * Static only.
+     */
+    private Stats() {}
+
+    /**
+     * The start time of a stage to pass to stop.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the latency of the stage.
+     *
+     * @param name  The name of the stage like open.
+     * @param start The time returned by start.
+     */
+    static void stop (String name, long start) {
+        histogram(TIMERS, name, LATENCY_BOUNDS).record((System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Records a size like the one of the intent parcel.
+     *
+     * @param name The name of the value.
+     * @param size The size in bytes.
+     */
+    static void size (String name, long size) {
+        histogram(SIZES, name, SIZE_BOUNDS).record(size);
+    }
+
+    /**
+     * Records the memory peak of a single request. Besides the histogram
+     * the values of the last requests are kept as they are.
+     *
+     * @param name  The name of the value.
+     * @param bytes The peak in bytes.
+     */
+    static void peak (String name, long bytes) {
+        histogram(SIZES, name, MEMORY_BOUNDS).record(bytes);
+
+        Recent recent = RECENT.get(name);
+
+        if (recent == null) {
+            Recent created = new Recent();
+            recent = RECENT.putIfAbsent(name, created);
+            if (recent == null) recent = created;
+        }
+
+        recent.add(bytes);
+    }
+
+    /**
+     * Increments the counter.
+     *
+     * @param name The name of the counter.
+     */
+    static void count (String name) {
+        counter(COUNTERS, name).incrementAndGet();
+    }
+
+    /**
+     * Adds the copied bytes to the scheme of their source.
+     *
+     * @param scheme The scheme like base64 or asset.
+     * @param bytes  The number of copied bytes.
+     */
+    static void bytes (String scheme, long bytes) {
+        counter(BYTES, scheme).addAndGet(bytes);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    static void reset() {
+        TIMERS.clear();
+        SIZES.clear();
+        COUNTERS.clear();
+        BYTES.clear();
+        RECENT.clear();
+    }
+
+    /**
+     * The stats in their JSON form. Latencies are in microseconds, sizes in
+     * bytes. The recent values are ordered from oldest to newest.
+     */
+    static JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+
+        try {
+            json.put("timers", histogramsToJSON(TIMERS));
+            json.put("sizes", histogramsToJSON(SIZES));
+            json.put("counters", countersToJSON(COUNTERS));
+            json.put("bytes", countersToJSON(BYTES));
+            json.put("recent", recentToJSON());
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to write stats");
+        }
+
+        return json;
+    }
+
+    /**
+     * The histogram of the name, created on first use.
+     */
+    private static Histogram histogram (ConcurrentMap<String, Histogram> map,
+                                        String name, long[] bounds) {
+        Histogram histogram = map.get(name);
+
+        if (histogram == null) {
+            Histogram created = new Histogram(bounds);
+            histogram = map.putIfAbsent(name, created);
+            if (histogram == null) histogram = created;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * The counter of the name, created on first use.
+     */
+    private static AtomicLong counter (ConcurrentMap<String, AtomicLong> map, String name) {
+        AtomicLong counter = map.get(name);
+
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = map.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+        }
+
+        return counter;
+    }
+
+    /**
+     * The histograms by their name in JSON form.
+     */
+    private static JSONObject histogramsToJSON (Map<String, Histogram> map)
+            throws JSONException {
+        JSONObject json = new JSONObject();
+
+        for (Map.Entry<String, Histogram> entry : map.entrySet()) {
+            json.put(entry.getKey(), toJSON(entry.getValue()));
+        }
+
+        return json;
+    }
+
+    /**
+     * The histogram in its JSON form.
+     */
+    private static JSONObject toJSON (Histogram histogram) throws JSONException {
+        JSONObject json = new JSONObject();
+        JSONArray upper = new JSONArray();
+        JSONArray hits  = new JSONArray();
+        int count       = histogram.getBucketCount();
+
+        for (int i = 0; i < count; i++) {
+            if (i < count - 1) upper.put(histogram.getBound(i));
+            hits.put(histogram.getBucket(i));
+        }
+
+        json.put("count", histogram.getCount());
+        json.put("sum", histogram.getSum());
+        json.put("max", histogram.getMax());
+        json.put("bounds", upper);
+        json.put("buckets", hits);
+
+        return json;
+    }
+
+    /**
+     * The counters by their name in JSON form.
+     */
+    private static JSONObject countersToJSON (Map<String, AtomicLong> map)
+            throws JSONException {
+        JSONObject json = new JSONObject();
+
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return json;
+    }
+
+    /**
+     * The recent values by their name in JSON form.
+     */
+    private static JSONObject recentToJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+
+        for (Map.Entry<String, Recent> entry : RECENT.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().toJSON());
+        }
+
+        return json;
+    }
+
+    /**
+     * Keeps the last values in a ring.
+     */
+    private static final class Recent {
+
+        // The values, overwritten in the order they were added.
+        private final long[] values = new long[MAX_RECENT];
+
+        // Number of values added so far.
+        private long count;
+
+        /**
+         * Adds the value and drops the oldest one if the ring is full.
+         */
+        synchronized void add (long value) {
+            values[(int) (count++ % values.length)] = value;
+        }
+
+        /**
+         * The values from oldest to newest.
+         */
+        synchronized JSONArray toJSON() {
+            JSONArray json = new JSONArray();
+            long first     = Math.max(0, count - values.length);
+
+            for (long i = first; i < count; i++) {
+                json.put(values[(int) (i % values.length)]);
+            }
+
+            return json;
+        }
+    }
+
+}
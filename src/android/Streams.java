@@ -0,0 +1,148 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Copies streams through a small pool of reusable buffers.
+ */
+@SuppressWarnings("Convert2Diamond")
+final class Streams {
+
+    // Size of the buffers used to copy streams.
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    // Number of copy buffers kept for reuse.
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    // Copy buffers ready for reuse.
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Asked between two chunks whether the copy may go on.
+     */
+    interface Checkpoint {
+
+        /**
+         * Throws to stop the copy.
+         */
+        void check();
+    }
+
+    /**
+     * Copies the stream through a pooled buffer. Neither stream gets
+     * closed.
+     *
+     * @param in         The input stream.
+     * @param out        The output stream.
+     * @param checkpoint Asked before each chunk or null.
+     *
+     * @return The number of copied bytes.
+     */
+    static long pump (InputStream in, OutputStream out,
+                      Checkpoint checkpoint) throws IOException {
+        byte[] buffer = BUFFERS.poll();
+        long bytes    = 0;
+        int read;
+
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+
+        try {
+            while ((read = in.read(buffer)) != -1) {
+                if (checkpoint != null) checkpoint.check();
+                out.write(buffer, 0, read);
+                bytes += read;
+            }
+        } finally {
+            if (BUFFERS.size() < MAX_POOLED_BUFFERS) BUFFERS.offer(buffer);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Closes the stream and ignores any error.
+     */
+    static void closeQuietly (Closeable stream) {
+        try {
+            stream.close();
+        } catch (IOException ignore) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Reads the chars of a sequence as single bytes, which is sufficient
+     * for the ASCII alphabet of base64 encoded content. Avoids a copy of
+     * the encoded content as a substring or byte array.
+     */
+    static final class CharSequenceInputStream extends InputStream {
+
+        // The content to read from.
+        private final CharSequence seq;
+
+        // The index of the next char to read.
+        private int pos;
+
+        /**
+         * Initializes the stream.
+         *
+         * @param seq   The content to read from.
+         * @param start The index of the first char to read.
+         */
+        CharSequenceInputStream (CharSequence seq, int start) {
+            this.seq = seq;
+            this.pos = start;
+        }
+
+        @Override
+        public int read() {
+            return pos < seq.length() ? seq.charAt(pos++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read (byte[] buffer, int offset, int length) {
+            int count = Math.min(length, seq.length() - pos);
+
+            if (count <= 0)
+                return length == 0 ? 0 : -1;
+
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) seq.charAt(pos++);
+            }
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, seq.length() - pos);
+        }
+    }
+
+}
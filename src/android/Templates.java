@@ -0,0 +1,301 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
+
+/**
+ * Registry of draft templates. The subject and body of a template are
+ * compiled once into literal and placeholder segments like {{name}}, so
+ * that opening a template only needs to pass the variables over the
+ * bridge.
+ */
+@SuppressWarnings({"Convert2Diamond", "Convert2Lambda"})
+final class Templates {
+
+    // The error code for an unknown template id.
+    static final String UNKNOWN_TEMPLATE = "UNKNOWN_TEMPLATE";
+
+    // Max number of templates kept by the registry.
+    private static final int MAX_TEMPLATES = 32;
+
+    // The properties which may contain placeholders.
+    private static final String[] FIELDS = { "subject", "body" };
+
+    // The compiled templates by their id, least recently used first.
+    private final Map<String, Template> templates =
+            new LinkedHashMap<String, Template>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry (Map.Entry<String, Template> eldest) {
+                    return size() > MAX_TEMPLATES;
+                }
+            };
+
+    // Number of drafts rendered from a template.
+    private final AtomicLong renders = new AtomicLong();
+
+    // Number of bridge bytes saved by rendering templates natively.
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Compiles and registers the template.
+     *
+     * @param id    The id of the template.
+     * @param props The email properties like subject or body.
+     */
+    void register (String id, JSONObject props) {
+        Template template = new Template(props);
+
+        synchronized (templates) {
+            templates.put(id, template);
+        }
+    }
+
+    /**
+     * Removes the template.
+     *
+     * @param id The id of the template.
+     */
+    void unregister (String id) {
+        synchronized (templates) {
+            templates.remove(id);
+        }
+    }
+
+    /**
+     * If the properties refer to a template.
+     *
+     * @param props The properties passed to open.
+     */
+    static boolean isTemplate (JSONObject props) {
+        return props.has("template");
+    }
+
+    /**
+     * The email properties of the template with its placeholders filled
+     * by the variables. Any other passed property overrides the one of
+     * the template.
+     *
+     * @param props The template id, its variables and overrides.
+     * @return      The email properties like subject or body.
+     */
+    JSONObject render (JSONObject props) throws JSONException {
+        String id = props.optString("template");
+        Template template;
+
+        synchronized (templates) {
+            template = templates.get(id);
+        }
+
+        if (template == null)
+            throw new ComposerException(UNKNOWN_TEMPLATE, "Unknown template: " + id);
+
+        JSONObject vars       = props.optJSONObject("variables");
+        JSONObject params     = template.render(vars != null ? vars : new JSONObject());
+        Iterator<String> keys = props.keys();
+        long sent             = id.length() + (vars != null ? estimateSize(vars) : 0);
+
+        while (keys.hasNext()) {
+            String key = keys.next();
+
+            if (!key.equals("template") && !key.equals("variables")) {
+                Object value = props.get(key);
+                params.put(key, value);
+                sent += estimateSize(key, value);
+            }
+        }
+
+        renders.incrementAndGet();
+        bytesSaved.addAndGet(template.size - sent);
+
+        return params;
+    }
+
+    /**
+     * Estimated number of bridge bytes of the properties. Only strings are
+     * measured, so that nothing gets serialized again.
+     *
+     * @param json The properties like the variables.
+     */
+    private static long estimateSize (JSONObject json) {
+        Iterator<String> keys = json.keys();
+        long size             = 2;
+
+        while (keys.hasNext()) {
+            String key = keys.next();
+            size += estimateSize(key, json.opt(key));
+        }
+
+        return size;
+    }
+
+    /**
+     * Estimated number of bridge bytes of the property.
+     *
+     * @param key   The name of the property.
+     * @param value The value of the property.
+     */
+    private static long estimateSize (String key, Object value) {
+        return key.length() + 4 + estimateSize(value);
+    }
+
+    /**
+     * Estimated number of bridge bytes of the value.
+     *
+     * @param value A string, number, object or array.
+     */
+    private static long estimateSize (Object value) {
+        if (value instanceof String)
+            return ((String) value).length() + 2;
+
+        if (value instanceof JSONObject)
+            return estimateSize((JSONObject) value);
+
+        if (value instanceof JSONArray) {
+            JSONArray list = (JSONArray) value;
+            long size      = 2;
+
+            for (int i = 0; i < list.length(); i++) {
+                size += estimateSize(list.opt(i)) + 1;
+            }
+
+            return size;
+        }
+
+        return 8;
+    }
+
+    /**
+     * Number of drafts rendered from a template.
+     */
+    long getRenders() {
+        return renders.get();
+    }
+
+    /**
+     * Number of bridge bytes saved by rendering templates natively.
+     */
+    long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Resets the render counters.
+     */
+    void resetCounters() {
+        renders.set(0);
+        bytesSaved.set(0);
+    }
+
+    /**
+     * A compiled template.
+     */
+    private static final class Template {
+
+        // The properties without placeholders.
+        private final JSONObject props;
+
+        // The segments of the fields with placeholders. Even indexes are
+        // literals, odd indexes are variable names.
+        private final Map<String, List<String>> fields =
+                new LinkedHashMap<String, List<String>>();
+
+        // The estimated size of the template in its JSON form.
+        private final long size;
+
+        /**
+         * Compiles the template.
+         *
+         * @param props The email properties like subject or body.
+         */
+        Template (JSONObject props) {
+            this.props = new JSONObject();
+            this.size  = estimateSize(props);
+
+            Iterator<String> keys = props.keys();
+
+            while (keys.hasNext()) {
+                String key = keys.next();
+
+                try {
+                    if (isField(key)) {
+                        fields.put(key, Placeholders.compile(props.optString(key)));
+                    } else {
+                        this.props.put(key, props.get(key));
+                    }
+                } catch (JSONException e) {
+                    Log.w(LOG_TAG, "Invalid template property: " + key);
+                }
+            }
+        }
+
+        /**
+         * The email properties with the placeholders filled.
+         *
+         * @param vars The variables by their name.
+         * @return     A new object with the email properties.
+         */
+        JSONObject render (final JSONObject vars) throws JSONException {
+            JSONObject params     = new JSONObject();
+            Iterator<String> keys = props.keys();
+
+            Placeholders.Variables values = new Placeholders.Variables() {
+                public String get (String name) {
+                    return vars.optString(name);
+                }
+            };
+
+            while (keys.hasNext()) {
+                String key = keys.next();
+                params.put(key, props.get(key));
+            }
+
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                params.put(field.getKey(), Placeholders.fill(field.getValue(), values));
+            }
+
+            return params;
+        }
+
+        /**
+         * If the property may contain placeholders.
+         */
+        private static boolean isField (String key) {
+            for (String field : FIELDS) {
+                if (field.equals(key)) return true;
+            }
+
+            return false;
+        }
+    }
+
+}
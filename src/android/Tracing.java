@@ -0,0 +1,101 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Trace sections for system traces like Perfetto. Tracing is off by
+ * default and costs a volatile read then. Each begin returns whether a
+ * section got opened, so that switching at runtime never unbalances
+ * the sections of a thread.
+ */
+final class Tracing {
+
+    // Max length of a section name.
+    private static final int MAX_NAME_LENGTH = 127;
+
+    // If the sections get written.
+    private static volatile boolean enabled;
+
+    /**
+     * Static only.
+     */
+    private Tracing() {}
+
+    /**
+     * Turns the sections on or off.
+     *
+     * @param on true to write the sections.
+     */
+    static void setEnabled (boolean on) {
+        enabled = on && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * If the sections get written. Check this before building a section
+     * name at runtime.
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens a section on the current thread.
+     *
+     * @param name The name of the section.
+     * @return     true if the section has to be closed by end.
+     */
+    static boolean begin (String name) {
+        if (!enabled)
+            return false;
+
+        if (name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, MAX_NAME_LENGTH);
+        }
+
+        Trace.beginSection(name);
+
+        return true;
+    }
+
+    /**
+     * Closes the section opened by begin.
+     *
+     * @param traced The value returned by begin.
+     */
+    static void end (boolean traced) {
+        if (traced) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Writes an empty section as a marker, like for the bytes a stage
+     * has copied.
+     *
+     * @param name The name of the marker.
+     */
+    static void mark (String name) {
+        end(begin(name));
+    }
+
+}
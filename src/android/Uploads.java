@@ -0,0 +1,182 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static de.appplant.cordova.emailcomposer.EmailComposer.LOG_TAG;
+
+/**
+ * Attachments uploaded by the app in binary chunks. Each upload is kept
+ * as a file under a random handle, which can be referenced as
+ * upload://handle within the attachments of a draft.
+ */
+final class Uploads {
+
+    // Path where to put the uploaded attachments.
+    private static final String UPLOAD_FOLDER = "/email_composer_uploads";
+
+    // The valid form of a handle.
+    private static final Pattern HANDLE = Pattern.compile("[0-9a-f\\-]+");
+
+    // Uploads older than the process belong to a previous session.
+    private static final long SESSION_START = System.currentTimeMillis();
+
+    // Application context
+    private final Context ctx;
+
+    /**
+     * Initializes the uploads.
+     *
+     * @param ctx The application context.
+     */
+    Uploads (Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Creates an empty upload.
+     *
+     * @param fileName The name of the attachment.
+     * @return         The handle of the upload.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    String create (String fileName) throws IOException {
+        String handle = UUID.randomUUID().toString();
+        File dir      = new File(getFolder(), handle);
+        String name   = new File(fileName).getName();
+
+        if (name.isEmpty() || !dir.mkdirs())
+            throw new IOException("Failed to create upload " + fileName);
+
+        new File(dir, name).createNewFile();
+
+        return handle;
+    }
+
+    /**
+     * Appends the chunk to the upload.
+     *
+     * @param handle The handle of the upload.
+     * @param chunk  The bytes to append.
+     * @return       The size of the upload.
+     */
+    long append (String handle, byte[] chunk) throws IOException {
+        File file = getFile(handle);
+
+        if (file == null)
+            throw new FileNotFoundException("Unknown upload " + handle);
+
+        synchronized (this) {
+            FileOutputStream out = new FileOutputStream(file, true);
+
+            try {
+                out.write(chunk);
+            } finally {
+                out.close();
+            }
+        }
+
+        return file.length();
+    }
+
+    /**
+     * Deletes the upload.
+     *
+     * @param handle The handle of the upload.
+     */
+    void discard (String handle) {
+        File file = getFile(handle);
+
+        if (file != null) {
+            delete(file.getParentFile());
+        }
+    }
+
+    /**
+     * The uploaded file.
+     *
+     * @param handle The handle of the upload.
+     * @return       The file or null if there is no such upload.
+     */
+    File getFile (String handle) {
+        if (!HANDLE.matcher(handle).matches())
+            return null;
+
+        File[] files = new File(getFolder(), handle).listFiles();
+
+        return files != null && files.length == 1 ? files[0] : null;
+    }
+
+    /**
+     * Deletes the uploads of previous sessions.
+     *
+     * @param ctx The application context.
+     */
+    static void cleanup (Context ctx) {
+        File[] dirs = new Uploads(ctx).getFolder().listFiles();
+
+        if (dirs == null)
+            return;
+
+        for (File dir : dirs) {
+            if (dir.lastModified() < SESSION_START) {
+                delete(dir);
+            }
+        }
+    }
+
+    /**
+     * The folder which holds the uploads.
+     */
+    private File getFolder() {
+        File dir = ctx.getExternalCacheDir();
+
+        if (dir == null) {
+            Log.e(LOG_TAG, "Missing external cache dir");
+            dir = ctx.getCacheDir();
+        }
+
+        return new File(dir, UPLOAD_FOLDER);
+    }
+
+    /**
+     * Deletes the folder including its files.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void delete (File dir) {
+        File[] files = dir.listFiles();
+
+        if (files != null) {
+            for (File file : files) { file.delete(); }
+        }
+
+        dir.delete();
+    }
+
+}
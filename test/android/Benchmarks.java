@@ -0,0 +1,505 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the plain Java core of the draft building on the JVM. Each
+ * case runs for a while to warm up before it gets measured. The results
+ * are compared against the tracked baseline.
+ *
+ *   test/android/run.sh Benchmarks          compare against the baseline
+ *   test/android/run.sh Benchmarks --save   write a new baseline
+ */
+@SuppressWarnings({"Convert2Diamond", "Convert2Lambda", "ResultOfMethodCallIgnored"})
+final class Benchmarks {
+
+    // Time in ms to warm up each case.
+    private static final long WARMUP = 500;
+
+    // Time in ms to measure each case.
+    private static final long MEASURE = 1000;
+
+    // Threads which record into the same histogram at once.
+    private static final int THREADS = 4;
+
+    // Measured ns per operation by the name of the case.
+    private final Map<String, Double> results = new LinkedHashMap<String, Double>();
+
+    // Keeps the results of the operations alive.
+    private long sink;
+
+    /**
+     * An operation to measure.
+     */
+    interface Case {
+
+        /**
+         * Runs the operation once.
+         *
+         * @return Any value derived from the result.
+         */
+        long run() throws Exception;
+    }
+
+    public static void main (String[] args) throws Exception {
+        Benchmarks bench = new Benchmarks();
+        File baseline    = new File(System.getProperty("baseline", "baseline.txt"));
+        boolean save     = args.length > 0 && "--save".equals(args[0]);
+
+        bench.runAll();
+        bench.report(load(baseline));
+
+        if (save) {
+            bench.save(baseline);
+            System.out.println("Saved " + baseline);
+        }
+    }
+
+    /**
+     * Runs all cases.
+     */
+    private void runAll() throws Exception {
+        final String text1k   = text(1024, "\r\n");
+        final String text100k = text(100 * 1024, "\r\n");
+        final String html100k = text(100 * 1024, "\n");
+        final String markup   = "<p>" + text(100 * 1024, "<br>\n") + "</p>";
+        final String base64   = "base64:icon.png//" + base64(1024 * 1024);
+
+        measure("BodyScan.scan plain 1 KB", 1024, new Case() {
+            public long run() {
+                return BodyScan.scan(text1k, false).source.length();
+            }
+        });
+
+        measure("BodyScan.scan plain 100 KB", 100 * 1024, new Case() {
+            public long run() {
+                return BodyScan.scan(text100k, false).source.length();
+            }
+        });
+
+        measure("BodyScan.scan html without markup 100 KB", 100 * 1024, new Case() {
+            public long run() {
+                return BodyScan.scan(html100k, true).plain.length();
+            }
+        });
+
+        measure("BodyScan.scan html with markup 100 KB", 100 * 1024, new Case() {
+            public long run() {
+                return BodyScan.scan(markup, true).source.length();
+            }
+        });
+
+        final String template = "Dear {{name}},\n\n" + text(4 * 1024, "\n")
+                + "\nInvoice {{number}} of {{ date }} is due.";
+        final List<String> segments = Placeholders.compile(template);
+        final Map<String, String> vars = new HashMap<String, String>();
+
+        vars.put("name", "Max Mustermann");
+        vars.put("number", "42");
+        vars.put("date", "2026-10-18");
+
+        measure("Placeholders.compile 4 KB", template.length(), new Case() {
+            public long run() {
+                return Placeholders.compile(template).size();
+            }
+        });
+
+        measure("Placeholders.fill 4 KB", template.length(), new Case() {
+            public long run() {
+                return Placeholders.fill(segments, new Placeholders.Variables() {
+                    public String get (String name) {
+                        String value = vars.get(name);
+                        return value != null ? value : "";
+                    }
+                }).length();
+            }
+        });
+
+        final int dataStart = base64.indexOf("//") + 2;
+
+        measure("AttachmentCache.key base64 1 MB", base64.length() - dataStart, new Case() {
+            public long run() {
+                return AttachmentCache.key(base64, dataStart).length();
+            }
+        });
+
+        measure("AttachmentCache.textKey 100 KB", 100 * 1024, new Case() {
+            public long run() {
+                return AttachmentCache.textKey(text100k).length();
+            }
+        });
+
+        measure("AttachmentCache.key parts", 0, new Case() {
+            public long run() {
+                return AttachmentCache.key("/www/img/logo.png", 1729240000000L, 4096).length();
+            }
+        });
+
+        final String[] paths = {
+                "res://icon.png", "app://databases/db.db3",
+                "file:///storage/emulated/0/Download/report.pdf", "file://img/logo.png",
+                "base64:icon.png//iVBORw0KGgo", "upload://1b2c3d4e", "content://media/external/1"
+        };
+
+        measure("AttachmentPath.getKind " + paths.length + " paths", 0, new Case() {
+            public long run() {
+                long kinds = 0;
+
+                for (String path : paths) {
+                    kinds += AttachmentPath.getKind(path) + AttachmentPath.getScheme(path).length();
+                }
+
+                return kinds;
+            }
+        });
+
+        final String video = "base64:video.mp4//" + base64(16 * 1024 * 1024);
+
+        for (final String data : new String[] { base64, video }) {
+            final int start = data.indexOf("//") + 2;
+            final int size  = data.length() - start;
+
+            measure("base64 decode " + size(size), size, new Case() {
+                public long run() throws IOException {
+                    InputStream in = Base64.getMimeDecoder()
+                            .wrap(new Streams.CharSequenceInputStream(data, start));
+
+                    return Streams.pump(in, new Sink(), null);
+                }
+            });
+        }
+
+        for (final long size : new long[] { 1024, 1024 * 1024, 64 * 1024 * 1024, 500L * 1024 * 1024 }) {
+            measure("Streams.pump memory " + size(size), size, new Case() {
+                public long run() throws IOException {
+                    return Streams.pump(new Source(size), new Sink(), null);
+                }
+            });
+        }
+
+        final File from = File.createTempFile("bench", ".bin");
+        final File to   = File.createTempFile("bench", ".bin");
+        final long size = 64 * 1024 * 1024;
+
+        try {
+            Streams.pump(new Source(size), new FileOutputStream(from), null);
+
+            measure("Streams.pump file " + size(size), size, new Case() {
+                public long run() throws IOException {
+                    InputStream in   = new FileInputStream(from);
+                    OutputStream out = new FileOutputStream(to);
+
+                    try {
+                        return Streams.pump(in, out, null);
+                    } finally {
+                        in.close();
+                        out.close();
+                    }
+                }
+            });
+        } finally {
+            from.delete();
+            to.delete();
+        }
+
+        final Histogram histogram = new Histogram(new long[] {
+                100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000
+        });
+
+        measure("Histogram.record", 0, new Case() {
+            private long value;
+
+            public long run() {
+                histogram.record(value = (value * 31 + 7) % 6000000);
+                return value;
+            }
+        });
+
+        measure("Histogram.record " + THREADS + " threads x 10000", 0, new Case() {
+            public long run() throws InterruptedException {
+                return recordConcurrently(histogram, 10000);
+            }
+        });
+    }
+
+    /**
+     * Warms up and measures the case.
+     *
+     * @param name  The name of the case.
+     * @param bytes The bytes processed per operation or 0.
+     * @param op    The operation.
+     */
+    private void measure (String name, long bytes, Case op) throws Exception {
+        loop(op, WARMUP);
+
+        long[] stats = loop(op, MEASURE);
+        double nsOp  = (double) stats[1] / stats[0];
+
+        results.put(name, nsOp);
+
+        if (bytes > 0) {
+            System.out.printf("  %-48s %14.1f ns/op %10.1f MB/s%n",
+                    name, nsOp, bytes * 1000.0 / nsOp);
+        } else {
+            System.out.printf("  %-48s %14.1f ns/op%n", name, nsOp);
+        }
+    }
+
+    /**
+     * Runs the case over and over for the given time.
+     *
+     * @return The number of operations and the time in ns they took.
+     */
+    private long[] loop (Case op, long ms) throws Exception {
+        long start = System.nanoTime();
+        long end   = start + ms * 1000000;
+        long ops   = 0;
+        long now;
+
+        do {
+            sink += op.run();
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+
+        return new long[] { ops, now - start };
+    }
+
+    /**
+     * Records the values from several threads at once.
+     *
+     * @return The number of values recorded.
+     */
+    private static long recordConcurrently (final Histogram histogram, final int count)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads           = new Thread[THREADS];
+
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < count; i++) {
+                        histogram.record((i * 31L + seed) % 6000000);
+                    }
+                }
+            });
+
+            threads[t].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return (long) THREADS * count;
+    }
+
+    /**
+     * Prints each result next to its baseline.
+     */
+    private void report (Map<String, Double> baseline) {
+        System.out.println();
+        System.out.printf("  %-48s %14s %14s %8s%n", "case", "ns/op", "baseline", "change");
+
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double base = baseline.get(result.getKey());
+            double now  = result.getValue();
+
+            if (base == null) {
+                System.out.printf("  %-48s %14.1f %14s %8s%n", result.getKey(), now, "-", "-");
+            } else {
+                System.out.printf("  %-48s %14.1f %14.1f %+7.1f%%%n",
+                        result.getKey(), now, base, (now - base) * 100 / base);
+            }
+        }
+
+        // Printed so that the work can not be optimized away
+        System.out.println();
+        System.out.println("  (" + (sink & 1) + ")");
+    }
+
+    /**
+     * Writes the results as the new baseline.
+     */
+    private void save (File file) throws IOException {
+        Writer out = new FileWriter(file);
+
+        try {
+            out.write("# ns/op per case, written by test/android/run.sh Benchmarks --save\n");
+
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                out.write(String.format("%.1f\t%s%n", result.getValue(), result.getKey()));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the baseline, if any.
+     */
+    private static Map<String, Double> load (File file) throws IOException {
+        Map<String, Double> baseline = new HashMap<String, Double>();
+
+        if (!file.isFile())
+            return baseline;
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+
+                if (line.startsWith("#") || tab == -1)
+                    continue;
+
+                baseline.put(line.substring(tab + 1), Double.valueOf(line.substring(0, tab)));
+            }
+        } finally {
+            in.close();
+        }
+
+        return baseline;
+    }
+
+    /**
+     * The size in KB or MB.
+     */
+    private static String size (long bytes) {
+        return bytes < 1024 * 1024 ? bytes / 1024 + " KB" : bytes / 1024 / 1024 + " MB";
+    }
+
+    /**
+     * Text of about the given length with line breaks.
+     */
+    private static String text (int length, String lineBreak) {
+        StringBuilder text = new StringBuilder(length + 80);
+        Random random      = new Random(42);
+
+        while (text.length() < length) {
+            for (int i = 0; i < 8 + random.nextInt(64); i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+                if (random.nextInt(6) == 0) text.append(' ');
+            }
+
+            text.append(lineBreak);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Base64 like content of the given length.
+     */
+    private static String base64 (int length) {
+        String chars       = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder data = new StringBuilder(length);
+        Random random      = new Random(42);
+
+        for (int i = 0; i < length; i++) {
+            data.append(chars.charAt(random.nextInt(chars.length())));
+        }
+
+        return data.toString();
+    }
+
+    /**
+     * Streams the given number of bytes without holding them.
+     */
+    private static final class Source extends InputStream {
+
+        // The content repeated over and over.
+        private static final byte[] PATTERN = new byte[64 * 1024];
+
+        // The bytes left to read.
+        private long left;
+
+        Source (long size) {
+            left = size;
+        }
+
+        @Override
+        public int read() {
+            return left-- > 0 ? 'x' : -1;
+        }
+
+        @Override
+        public int read (byte[] buffer, int offset, int length) {
+            if (left <= 0)
+                return -1;
+
+            int count = (int) Math.min(Math.min(length, left), PATTERN.length);
+
+            System.arraycopy(PATTERN, 0, buffer, offset, count);
+            left -= count;
+
+            return count;
+        }
+    }
+
+    /**
+     * Takes any bytes and keeps only a checksum.
+     */
+    private static final class Sink extends OutputStream {
+
+        // Sum of the first byte of each chunk.
+        private long sum;
+
+        @Override
+        public void write (int b) {
+            sum += b;
+        }
+
+        @Override
+        public void write (byte[] buffer, int offset, int length) {
+            sum += buffer[offset] + length;
+        }
+    }
+
+}
@@ -0,0 +1,329 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.emailcomposer;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the routing of request codes to their callbacks and the
+ * rejection of work by a full lane under contention. Exits with 1 once
+ * a check fails.
+ *
+ *   test/android/run.sh ConcurrencyTest
+ */
+@SuppressWarnings({"Convert2Diamond", "Convert2Lambda"})
+final class ConcurrencyTest {
+
+    // Threads which register requests.
+    private static final int PRODUCERS = 4;
+
+    // Threads which complete requests.
+    private static final int CONSUMERS = 4;
+
+    // Requests per producer, enough to wrap the codes several times.
+    private static final int REQUESTS = 100000;
+
+    // Requests which stay open the whole time, like a shown draft.
+    private static final int STUCK = 1000;
+
+    // Number of failed checks.
+    private static int failures;
+
+    /**
+     * A callback which knows the code it was registered with.
+     */
+    private static final class Callback {
+
+        // The code the callback was registered with.
+        volatile int code = -1;
+
+        // The time in ns it was registered.
+        final long added = System.nanoTime();
+    }
+
+    public static void main (String[] args) throws Exception {
+        routesEachResultToItsCallback();
+        rejectsWorkOnceTheLaneIsFull();
+        rejectsWorkFromManyThreads();
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * Producers register requests while consumers complete them on other
+     * threads. Some requests stay open across all wraps of the codes.
+     */
+    private static void routesEachResultToItsCallback() throws Exception {
+        final Requests<Callback> requests     = new Requests<Callback>();
+        final BlockingQueue<Callback> results = new ArrayBlockingQueue<Callback>(1024);
+        final AtomicInteger misrouted         = new AtomicInteger();
+        final AtomicInteger completed         = new AtomicInteger();
+        final long[] latencies                = new long[PRODUCERS * REQUESTS];
+        final Callback done                   = new Callback();
+        Callback[] stuck                      = new Callback[STUCK];
+
+        for (int i = 0; i < STUCK; i++) {
+            stuck[i]      = new Callback();
+            stuck[i].code = requests.add(stuck[i]);
+        }
+
+        Thread[] producers = new Thread[PRODUCERS];
+        Thread[] consumers = new Thread[CONSUMERS];
+        long start         = System.nanoTime();
+
+        for (int t = 0; t < PRODUCERS; t++) {
+            producers[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < REQUESTS; i++) {
+                        Callback callback = new Callback();
+                        callback.code     = requests.add(callback);
+                        put(results, callback);
+                    }
+                }
+            });
+        }
+
+        for (int t = 0; t < CONSUMERS; t++) {
+            consumers[t] = new Thread(new Runnable() {
+                public void run() {
+                    Callback callback;
+
+                    while ((callback = take(results)) != done) {
+                        if (requests.remove(callback.code) != callback) {
+                            misrouted.incrementAndGet();
+                        }
+
+                        latencies[completed.getAndIncrement()] = System.nanoTime() - callback.added;
+                    }
+                }
+            });
+        }
+
+        startAll(producers);
+        startAll(consumers);
+        joinAll(producers);
+
+        for (int t = 0; t < CONSUMERS; t++) {
+            put(results, done);
+        }
+
+        joinAll(consumers);
+
+        long time = System.nanoTime() - start;
+        int lost  = 0;
+
+        for (Callback callback : stuck) {
+            if (requests.remove(callback.code) != callback) lost++;
+        }
+
+        check("all requests completed", completed.get() == PRODUCERS * REQUESTS);
+        check("no result misrouted", misrouted.get() == 0);
+        check("no open request overwritten", lost == 0);
+        check("nothing left behind", requests.size() == 0);
+
+        Arrays.sort(latencies);
+
+        System.out.printf("  %d requests in %d ms, %.0f requests/s, p50 %d us, p99 %d us%n",
+                latencies.length, time / 1000000, latencies.length * 1e9 / time,
+                latencies[latencies.length / 2] / 1000,
+                latencies[latencies.length * 99 / 100] / 1000);
+
+        Requests<Callback> full = new Requests<Callback>();
+
+        for (int i = 0; i < Requests.CODES; i++) {
+            full.add(done);
+        }
+
+        try {
+            full.add(done);
+            check("no code once all are in use", false);
+        } catch (IllegalStateException e) {
+            check("no code once all are in use", true);
+        }
+    }
+
+    /**
+     * A lane with a blocked worker takes as many tasks as its queue holds
+     * and rejects the next one.
+     */
+    private static void rejectsWorkOnceTheLaneIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger ran      = new AtomicInteger();
+        Lane lane                    = new Lane("test", 1, 4, Executors.defaultThreadFactory());
+        boolean rejected             = false;
+
+        lane.execute(block(started, release, ran));
+        started.await();
+
+        for (int i = 0; i < 4; i++) {
+            lane.execute(count(ran));
+        }
+
+        try {
+            lane.execute(count(ran));
+        } catch (RejectedExecutionException e) {
+            rejected = e.getMessage().contains("test");
+        }
+
+        check("rejects the task after the queue", rejected);
+        check("counts the rejection", lane.getRejected() == 1);
+        check("tracks the max depth", lane.getMaxDepth() == 4);
+
+        release.countDown();
+        lane.shutdown();
+        lane.awaitTermination(5, TimeUnit.SECONDS);
+
+        check("runs the queued tasks", ran.get() == 5);
+        check("counts the tasks", lane.getTasks() == 5);
+        check("tracks the wait", lane.getMaxWait() > 0 && lane.getTotalWait() >= lane.getMaxWait());
+    }
+
+    /**
+     * Many threads submit to a lane with blocked workers at once. Each
+     * task is either queued or rejected, never both or neither.
+     */
+    private static void rejectsWorkFromManyThreads() throws Exception {
+        final int threads            = 8;
+        final int submits            = 1000;
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch go      = new CountDownLatch(1);
+        final AtomicInteger ran      = new AtomicInteger();
+        final AtomicLong refused     = new AtomicLong();
+        final Lane lane              = new Lane("test", 2, 16, Executors.defaultThreadFactory());
+        Thread[] submitters          = new Thread[threads];
+
+        lane.execute(block(started, release, ran));
+        lane.execute(block(started, release, ran));
+        started.await();
+
+        for (int t = 0; t < threads; t++) {
+            submitters[t] = new Thread(new Runnable() {
+                public void run() {
+                    await(go);
+
+                    for (int i = 0; i < submits; i++) {
+                        try {
+                            lane.execute(count(ran));
+                        } catch (RejectedExecutionException e) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+
+        startAll(submitters);
+        go.countDown();
+        joinAll(submitters);
+
+        check("queues as many tasks as fit", lane.getQueue().size() == 16);
+        check("rejects all others", refused.get() == threads * submits - 16);
+        check("counts all rejections", lane.getRejected() == refused.get());
+        check("max depth stays within the capacity", lane.getMaxDepth() == 16);
+
+        release.countDown();
+        lane.shutdown();
+        lane.awaitTermination(5, TimeUnit.SECONDS);
+
+        check("runs the queued and blocked tasks", ran.get() == 18);
+    }
+
+    /**
+     * A task which blocks until released.
+     */
+    private static Runnable block (final CountDownLatch started,
+                                   final CountDownLatch release, final AtomicInteger ran) {
+        return new Runnable() {
+            public void run() {
+                started.countDown();
+                await(release);
+                ran.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * A task which counts its run.
+     */
+    private static Runnable count (final AtomicInteger ran) {
+        return new Runnable() {
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Prints the result of the check.
+     */
+    private static void check (String name, boolean passed) {
+        System.out.println((passed ? "  ok     " : "  FAILED ") + name);
+        if (!passed) failures++;
+    }
+
+    private static void startAll (Thread[] threads) {
+        for (Thread thread : threads) thread.start();
+    }
+
+    private static void joinAll (Thread[] threads) throws InterruptedException {
+        for (Thread thread : threads) thread.join();
+    }
+
+    private static void await (CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void put (BlockingQueue<Callback> queue, Callback callback) {
+        try {
+            queue.put(callback);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Callback take (BlockingQueue<Callback> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+#!/bin/sh
+#
+# Compiles the plain Java core of src/android together with the harness
+# of this folder and runs one of its classes on the JVM.
+#
+#   test/android/run.sh Benchmarks [--save]
+#   test/android/run.sh ConcurrencyTest
+#
+set -e
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+SRC="$DIR/../../src/android"
+OUT="${TMPDIR:-/tmp}/email-composer-jvm"
+
+# Sources without any Android or Cordova dependency
+CORE="AttachmentCache AttachmentPath BodyScan Histogram Lane Placeholders Requests Streams"
+
+MAIN="$1"
+[ -n "$MAIN" ] || { echo "usage: $0 <class> [args]" >&2; exit 2; }
+shift
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+
+javac -nowarn -encoding UTF-8 -d "$OUT" \
+    $(for c in $CORE; do echo "$SRC/$c.java"; done) "$DIR"/*.java
+
+exec java -Dbaseline="$DIR/baseline.txt" -cp "$OUT" "de.appplant.cordova.emailcomposer.$MAIN" "$@"
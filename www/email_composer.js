@@ -20,7 +20,21 @@
 var exec      = require('cordova/exec'),
     ua        = navigator.userAgent.toLowerCase(),
     isAndroid = !window.Windows && ua.indexOf('android') > -1,
-    mailto    = 'mailto:';
+    mailto    = 'mailto:',
+    templates = {},
+    prepared  = {},
+    grants    = {},
+    lastDraft = 0;
+
+/**
+ * Max number of bytes passed to the native side at once.
+ */
+var UPLOAD_CHUNK_SIZE = 256 * 1024;
+
+/**
+ * Delay in ms before a chunk rejected by a busy native side is resent.
+ */
+var BUSY_RETRY_DELAY = 50;
 
 /**
  * List of all registered mail app aliases.
@@ -60,43 +74,84 @@ exports.getDefaults = function () {
 };
 
 /**
- * Informs if the app has the needed permission.
+ * Informs if the app has the needed permission. For an array of
+ * permissions the callback gets an object with the grant state of each.
+ * The results are kept until the app resumes.
  *
- * @param [ Number ]   permission The permission to check.
- * @param [ Function ] callback   The callback function.
- * @param [ Object ]   scope      The scope of the callback.
+ * @param [ Number|Array ] permission The permission(s) to check.
+ * @param [ Function ]     callback   The callback function.
+ * @param [ Object ]       scope      The scope of the callback.
  *
  * @return [ Void ]
  */
 exports.hasPermission = function(permission, callback, scope) {
-    var fn = this.createCallbackFn(callback, scope);
+    var fn    = this.createCallbackFn(callback, scope),
+        codes = [].concat(permission),
+        batch = Array.isArray(permission),
+        res   = {},
+        miss  = [];
 
     if (!isAndroid) {
-        if (fn) fn(true);
+        codes.forEach(function (code) { res[code] = true; });
+        if (fn) fn(batch ? res : true);
+        return;
+    }
+
+    codes.forEach(function (code) {
+        if (grants.hasOwnProperty(code)) {
+            res[code] = grants[code];
+        } else {
+            miss.push(code);
+        }
+    });
+
+    if (miss.length === 0) {
+        if (fn) fn(batch ? res : res[permission]);
         return;
     }
 
-    exec(fn, null, 'EmailComposer', 'check', [permission]);
+    exec(function (checked) {
+        Object.keys(checked).forEach(function (code) {
+            grants[code] = res[code] = checked[code];
+        });
+
+        if (fn) fn(batch ? res : res[permission]);
+    }, null, 'EmailComposer', 'check', [miss]);
  };
 
 /**
- * Request permission if not already granted.
+ * Request permission if not already granted. For an array of permissions
+ * all are requested at once and the callback gets an object with the
+ * grant state of each.
  *
- * @param [ Number ]   permission The permission to request.
- * @param [ Function ] callback The callback function.
- * @param [ Object ]   scope    The scope of the callback.
+ * @param [ Number|Array ] permission The permission(s) to request.
+ * @param [ Function ]     callback   The callback function.
+ * @param [ Object ]       scope      The scope of the callback.
  *
  * @return [ Void ]
  */
 exports.requestPermission = function(permission, callback, scope) {
-    var fn = this.createCallbackFn(callback, scope);
+    var fn    = this.createCallbackFn(callback, scope),
+        batch = Array.isArray(permission),
+        res   = {};
 
     if (!isAndroid) {
-        if (fn) fn(true);
+        [].concat(permission).forEach(function (code) { res[code] = true; });
+        if (fn) fn(batch ? res : true);
         return;
     }
 
-    exec(fn, null, 'EmailComposer', 'request', [permission]);
+    exec(function (granted) {
+        grants = {};
+
+        if (!fn) return;
+
+        if (batch) {
+            fn(granted);
+        } else {
+            fn(!!granted[permission], permission);
+        }
+    }, null, 'EmailComposer', 'request', [[].concat(permission)]);
 };
 
 /**
@@ -113,6 +168,30 @@ exports.hasAccount = function (callback, scope) {
     exec(fn, null, 'EmailComposer', 'account', []);
 };
 
+/**
+ * Tries to find out how many email accounts are configured and of which
+ * types. The callback gets an object like
+ * { configured: true, count: 2, types: ['com.google'] }.
+ * The count and types are reported on Android only.
+ *
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.getAccountInfo = function (callback, scope) {
+    var fn = this.createCallbackFn(callback, scope);
+
+    if (!isAndroid) {
+        this.hasAccount(function (res) {
+            if (fn) fn({ configured: res, count: null, types: [] });
+        });
+        return;
+    }
+
+    exec(fn, null, 'EmailComposer', 'accounts', []);
+};
+
 /**
  * Tries to find out if the device has an installed email client.
  *
@@ -161,9 +240,72 @@ exports.getClients = function (callback, scope) {
 };
 
 /**
- * Displays the email composer pre-filled with data.
+ * Probes permissions, account, installed clients and the given apps
+ * with a single call.
+ *
+ * @param [ Array ]    apps     An optional list of app ids or aliases.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.getCapabilities = function (apps, callback, scope) {
+
+    if (typeof apps == 'function') {
+        scope    = callback;
+        callback = apps;
+        apps     = [];
+    }
+
+    var fn   = this.createCallbackFn(callback, scope),
+        apps = [].concat(apps || []),
+        me   = this;
+
+    if (isAndroid) {
+        var ids = apps.map(function (app) {
+            return me.aliases.hasOwnProperty(app) ? me.aliases[app] : app;
+        });
+
+        exec(function (caps) {
+            var res = {};
+
+            apps.forEach(function (app, i) { res[app] = caps.apps[i]; });
+            caps.apps = res;
+
+            if (fn) fn(caps);
+        }, null, 'EmailComposer', 'capabilities', [ids]);
+
+        return;
+    }
+
+    var caps    = { permissions: {}, account: false, clients: null, apps: {} },
+        pending = apps.length + 1,
+        done    = function () { if (--pending === 0 && fn) fn(caps); };
+
+    Object.keys(this.permission).forEach(function (key) {
+        caps.permissions[me.permission[key]] = true;
+    });
+
+    this.hasAccount(function (res) {
+        caps.account = res;
+        done();
+    });
+
+    apps.forEach(function (app) {
+        me.hasClient(app, function (res) {
+            caps.apps[app] = res;
+            done();
+        });
+    });
+};
+
+/**
+ * Displays the email composer pre-filled with data. If the draft could
+ * not be opened, the callback gets called with an error object which
+ * contains a code and a message.
  *
  * @param [ Object ]   options  The email properties like the body,...
+ *                              or the handle of a prepared draft.
  * @param [ Function ] callback The callback function.
  * @param [ Object ]   scope    The scope of the callback.
  *
@@ -177,14 +319,339 @@ exports.open = function (options, callback, scope) {
         options  = {};
     }
 
+    if (typeof options == 'string') {
+        this.openPrepared(options, callback, scope);
+        return;
+    }
+
+    var fn = this.createCallbackFn(callback, scope);
+
+    this.openMerged(this.mergeWithDefaults(options || {}), fn);
+};
+
+/**
+ * Builds the draft in the background ahead of open. The callback gets a
+ * handle, which can be passed to open instead of the options. The handle
+ * expires after options.ttl ms (5 minutes by default) or once the draft
+ * got opened.
+ *
+ * @param [ Object ]   options  The email properties like the body,...
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.prepare = function (options, callback, scope) {
     var fn      = this.createCallbackFn(callback, scope),
-        options = this.mergeWithDefaults(options || {});
+        options = options || {},
+        handle;
 
-    if (!isAndroid && options.app != mailto && fn) {
-        this.registerCallbackForScheme(fn);
+    // Kept as given, open merges them with the defaults
+    if (!isAndroid) {
+        handle = 'draft' + (++lastDraft);
+        prepared[handle] = options;
+        if (fn) fn(handle);
+        return;
+    }
+
+    exec(fn, fn, 'EmailComposer', 'prepare', [this.mergeWithDefaults(options)]);
+};
+
+/**
+ * Releases a prepared draft which is not going to be opened.
+ *
+ * @param [ String ] handle The handle of the draft.
+ *
+ * @return [ Void ]
+ */
+exports.release = function (handle) {
+
+    if (!isAndroid) {
+        delete prepared[handle];
+        return;
+    }
+
+    exec(null, null, 'EmailComposer', 'release', [handle]);
+};
+
+/**
+ * Collects the timers and counters of the native side. Latencies are
+ * reported as histograms in microseconds, sizes in bytes. Android only.
+ *
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.getStats = function (callback, scope) {
+    var fn = this.createCallbackFn(callback, scope);
+
+    if (!isAndroid) {
+        if (fn) fn({});
+        return;
     }
 
-    exec(fn, null, 'EmailComposer', 'open', [options]);
+    exec(fn, null, 'EmailComposer', 'stats', []);
+};
+
+/**
+ * Resets the timers and counters of the native side.
+ *
+ * @return [ Void ]
+ */
+exports.resetStats = function () {
+    if (!isAndroid)
+        return;
+
+    exec(null, null, 'EmailComposer', 'resetStats', []);
+};
+
+/**
+ * Turns the trace sections of the native side on or off. The sections
+ * show up in system traces like Perfetto. Android only.
+ *
+ * @param [ Boolean ] enabled true to write the sections.
+ *
+ * @return [ Void ]
+ */
+exports.setTracing = function (enabled) {
+    if (!isAndroid)
+        return;
+
+    exec(null, null, 'EmailComposer', 'trace', [!!enabled]);
+};
+
+/**
+ * Cancels the drafts which are still being built. Their callbacks get
+ * the error code CANCELLED. Drafts already shown to the user are not
+ * affected.
+ *
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.cancel = function (callback, scope) {
+    var fn = this.createCallbackFn(callback, scope);
+
+    if (!isAndroid) {
+        if (fn) fn();
+        return;
+    }
+
+    exec(fn, null, 'EmailComposer', 'cancel', []);
+};
+
+/**
+ * @private
+ *
+ * Displays a prepared draft.
+ *
+ * @param [ String ]   handle   The handle of the draft.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.openPrepared = function (handle, callback, scope) {
+    var fn      = this.createCallbackFn(callback, scope),
+        options = prepared[handle];
+
+    if (isAndroid) {
+        exec(fn, fn, 'EmailComposer', 'open', [{ draft: handle }]);
+        return;
+    }
+
+    if (!options) {
+        if (fn) fn({ code: 'UNKNOWN_DRAFT', message: 'Unknown or expired draft: ' + handle });
+        return;
+    }
+
+    delete prepared[handle];
+    this.open(options, callback, scope);
+};
+
+/**
+ * Registers a draft template. The subject and body may contain
+ * placeholders like {{name}}, which get filled by openTemplate.
+ *
+ * @param [ String ]   id       The id of the template.
+ * @param [ Object ]   options  The email properties like the body,...
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.registerTemplate = function (id, options, callback, scope) {
+    var fn      = this.createCallbackFn(callback, scope),
+        options = options || {};
+
+    // Kept as given, openTemplate merges a copy with the defaults
+    if (!isAndroid) {
+        templates[id] = options;
+        if (fn) fn();
+        return;
+    }
+
+    exec(fn, null, 'EmailComposer', 'register', [id, this.mergeWithDefaults(options)]);
+};
+
+/**
+ * Removes a draft template.
+ *
+ * @param [ String ]   id       The id of the template.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.unregisterTemplate = function (id, callback, scope) {
+    var fn = this.createCallbackFn(callback, scope);
+
+    if (!isAndroid) {
+        delete templates[id];
+        if (fn) fn();
+        return;
+    }
+
+    exec(fn, null, 'EmailComposer', 'unregister', [id]);
+};
+
+/**
+ * Displays the email composer pre-filled with a registered template.
+ *
+ * @param [ String ]   id        The id of the template.
+ * @param [ Object ]   variables The values of the placeholders.
+ * @param [ Function ] callback  The callback function.
+ * @param [ Object ]   scope     The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.openTemplate = function (id, variables, callback, scope) {
+    var fn   = this.createCallbackFn(callback, scope),
+        vars = variables || {},
+        tpl  = templates[id],
+        fill = function (text) {
+            return text.replace(/\{\{\s*([^}]*?)\s*\}\}/g, function (match, name) {
+                return vars.hasOwnProperty(name) ? String(vars[name]) : '';
+            });
+        };
+
+    if (isAndroid) {
+        exec(fn, fn, 'EmailComposer', 'open', [{ template: id, variables: vars }]);
+        return;
+    }
+
+    if (!tpl) {
+        if (fn) fn({ code: 'UNKNOWN_TEMPLATE', message: 'Unknown template: ' + id });
+        return;
+    }
+
+    var options = {};
+
+    for (var key in tpl) {
+        if (tpl.hasOwnProperty(key)) options[key] = tpl[key];
+    }
+
+    options         = this.mergeWithDefaults(options);
+    options.subject = fill(options.subject);
+    options.body    = fill(options.body);
+
+    this.openMerged(options, fn);
+};
+
+/**
+ * Uploads binary content as an attachment. On Android the content is
+ * passed in chunks, so it never has to be encoded as one base64 string.
+ * The callback gets the reference to use within the attachments or an
+ * error object.
+ *
+ * @param [ String ]   name     The file name of the attachment.
+ * @param [ Object ]   data     An ArrayBuffer, typed array or Blob.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope of the callback.
+ *
+ * @return [ Void ]
+ */
+exports.stageAttachment = function (name, data, callback, scope) {
+    var fn = this.createCallbackFn(callback, scope),
+        blob, size, handle;
+
+    if (ArrayBuffer.isView(data)) {
+        data = data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+    }
+
+    blob = data instanceof ArrayBuffer ? null : data;
+    size = blob ? blob.size : data.byteLength;
+
+    var fail = function (err) {
+        if (fn) fn(err && err.code ? err : { code: 'UPLOAD_FAILED', message: err });
+    };
+
+    var read = function (start, end, done) {
+        if (!blob) return done(data.slice(start, end));
+
+        var reader = new FileReader();
+
+        reader.onload  = function () { done(reader.result); };
+        reader.onerror = function () { fail(String(reader.error)); };
+        reader.readAsArrayBuffer(blob.slice(start, end));
+    };
+
+    if (!isAndroid) {
+        read(0, size, function (buffer) {
+            var bytes = new Uint8Array(buffer), chars = [];
+
+            for (var i = 0; i < bytes.length; i += 0x8000) {
+                chars.push(String.fromCharCode.apply(null, bytes.subarray(i, i + 0x8000)));
+            }
+
+            if (fn) fn('base64:' + name + '//' + btoa(chars.join('')));
+        });
+        return;
+    }
+
+    var next = function (start) {
+        if (start >= size) {
+            if (fn) fn('upload://' + handle);
+            return;
+        }
+
+        read(start, start + UPLOAD_CHUNK_SIZE, function (chunk) {
+            var append = function () {
+                exec(function () {
+                    next(start + UPLOAD_CHUNK_SIZE);
+                }, function (err) {
+                    if (err && err.code == 'BUSY') {
+                        setTimeout(append, BUSY_RETRY_DELAY);
+                    } else {
+                        fail(err);
+                    }
+                }, 'EmailComposer', 'append', [handle, chunk]);
+            };
+
+            append();
+        });
+    };
+
+    exec(function (res) {
+        handle = res;
+        next(0);
+    }, fail, 'EmailComposer', 'stage', [name]);
+};
+
+/**
+ * Deletes an attachment uploaded through stageAttachment.
+ *
+ * @param [ String ] ref The reference of the attachment.
+ *
+ * @return [ Void ]
+ */
+exports.discardAttachment = function (ref) {
+    if (!isAndroid || String(ref).indexOf('upload://') !== 0)
+        return;
+
+    exec(null, null, 'EmailComposer', 'discard', [ref.substr(9)]);
 };
 
 /**
@@ -206,6 +673,26 @@ exports.openDraft = function () {
     this.open.apply(this, arguments);
 };
 
+/**
+ * @private
+ *
+ * Displays the email composer with options which have been merged with
+ * the default values already.
+ *
+ * @param [ Object ]   options The merged email properties.
+ * @param [ Function ] fn      The callback function.
+ *
+ * @return [ Void ]
+ */
+exports.openMerged = function (options, fn) {
+
+    if (!isAndroid && options.app != mailto && fn) {
+        this.registerCallbackForScheme(fn);
+    }
+
+    exec(fn, fn, 'EmailComposer', 'open', [options]);
+};
+
 /**
  * @private
  *
@@ -298,3 +785,6 @@ exports.registerCallbackForScheme = function (fn) {
 
     document.addEventListener('resume', callback, false);
 };
+
+// Forget the grant state, the user might have changed it in the settings
+document.addEventListener('resume', function () { grants = {}; }, false);